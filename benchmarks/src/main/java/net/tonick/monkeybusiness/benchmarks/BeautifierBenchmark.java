@@ -0,0 +1,14 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import net.tonick.monkeybusiness.util.TextBeautifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+public class BeautifierBenchmark {
+    @Benchmark
+    public void beautifyCorpus(GameData game, Blackhole blackhole) {
+        for (String text : game.texts) {
+            blackhole.consume(TextBeautifier.beautify(text));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks in throughput mode with the GC profiler attached, so every result comes with its
+ * allocation rate. Accepts the usual JMH command line options, e.g. a benchmark regex.
+ * <p>
+ * Usage: {@code java [-Dmonkeybusiness.gameFile=path/to/monkey.001] -jar benchmarks.jar [JMH options]}
+ */
+public class BenchmarkRunner {
+    public static void main(String... args) throws RunnerException, CommandLineOptionException {
+        List<String> jvmArgs = new ArrayList<>();
+        jvmArgs.add("-Dlog4j2.configurationFile=log4j2-benchmark.xml");
+        String gameFile = System.getProperty(GameData.GAME_FILE_PROPERTY);
+        if (gameFile != null) {
+            jvmArgs.add("-D" + GameData.GAME_FILE_PROPERTY + "=" + gameFile);
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend(jvmArgs.toArray(new String[0]))
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,31 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import net.tonick.monkeybusiness.parser.Script;
+import net.tonick.monkeybusiness.parser.ScriptExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class ExtractorBenchmark {
+    @Benchmark
+    public byte[] readFile(GameData game) throws IOException {
+        return ScriptExtractor.readFile(game.gameFile);
+    }
+
+    @Benchmark
+    public ByteBuffer mapFile(GameData game) throws IOException {
+        return ScriptExtractor.mapFile(game.gameFile);
+    }
+
+    @Benchmark
+    public List<Script> extractScripts(GameData game) {
+        return ScriptExtractor.extractScripts(game.data);
+    }
+
+    @Benchmark
+    public List<Script> scanScripts(GameData game) {
+        return ScriptExtractor.scanScripts(game.data);
+    }
+}
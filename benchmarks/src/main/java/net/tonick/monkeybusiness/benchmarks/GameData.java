@@ -0,0 +1,72 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import net.tonick.monkeybusiness.parser.Script;
+import net.tonick.monkeybusiness.parser.ScriptExtractor;
+import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import net.tonick.monkeybusiness.util.CorpusGenerator;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The game file all benchmarks run against, set with {@code -Dmonkeybusiness.gameFile=...}.
+ * Without it a synthetic game of {@link #syntheticRooms} rooms is generated.
+ */
+@State(Scope.Benchmark)
+public class GameData {
+    public static final String GAME_FILE_PROPERTY = "monkeybusiness.gameFile";
+
+    @Param("50")
+    public int syntheticRooms;
+
+    public File gameFile;
+    public ByteBuffer data;
+    public List<Script> scripts;
+    public int[] scriptOffsets;
+    public int largestScriptOffset;
+    public List<String> texts;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String path = System.getProperty(GAME_FILE_PROPERTY);
+        if (path == null) {
+            // The generator writes the index next to the data file, files are deleted in reverse order of registration
+            File directory = Files.createTempDirectory("synthetic").toFile();
+            directory.deleteOnExit();
+            gameFile = new File(directory, "synthetic.001");
+            new File(directory, "synthetic.000").deleteOnExit();
+            gameFile.deleteOnExit();
+            new CorpusGenerator().setRooms(syntheticRooms).setScriptsPerRoom(20).write(gameFile);
+        } else {
+            gameFile = new File(path);
+        }
+        if (!gameFile.isFile()) {
+            throw new IllegalStateException("Game file " + gameFile + " not found");
+        }
+
+        data = ScriptExtractor.mapFile(gameFile);
+        scripts = ScriptExtractor.extractScripts(data);
+        scriptOffsets = scripts.stream().mapToInt(Script::getOffset).toArray();
+        largestScriptOffset = scripts.stream().max(Comparator.comparingInt(Script::getLength)).orElseThrow().getOffset();
+        texts = new ScriptParser().extractTexts(scripts, 1).stream()
+                .map(TextRecord::getText)
+                .toList();
+    }
+
+    /**
+     * Parsing adds to a script's opcodes, so every invocation needs fresh (zero-copy) script views
+     */
+    public Script freshScript(int offset) {
+        return ScriptExtractor.readScriptAt(data, offset);
+    }
+}
@@ -0,0 +1,66 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import net.tonick.monkeybusiness.parser.OpCodeParser;
+import net.tonick.monkeybusiness.parser.ParseContext;
+import net.tonick.monkeybusiness.parser.TextDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The operand decoding helpers every opcode parser is built on, independent of any game file
+ */
+@State(Scope.Thread)
+public class HelperBenchmark {
+    private static final int WORDS = 1024;
+
+    private ParseContext words;
+    private ParseContext string;
+    private ByteBuffer text;
+
+    @Setup
+    public void setup() {
+        ByteBuffer wordBuffer = ByteBuffer.allocate(WORDS * Short.BYTES);
+        for (int i = 0; i < WORDS; i++) {
+            wordBuffer.putShort((short) i);
+        }
+        words = new ParseContext(wordBuffer.flip());
+
+        // Typical dialog line including a wait and a variable insert escape
+        byte[] text = "I'm selling these fine leather jackets.ÿ\u0003Only ÿ\u0004\u0010\u0000 pieces of eight!\u0000"
+                .getBytes(Charset.forName("ISO-8859-1"));
+        this.text = ByteBuffer.wrap(text);
+        string = new ParseContext(ByteBuffer.wrap(text));
+    }
+
+    @Benchmark
+    public int getVarOrDirectWord() {
+        words.getBuffer().rewind();
+        words.setOpcode((byte) 0x01);
+        int sum = 0;
+        for (int i = 0; i < WORDS; i++) {
+            sum += words.getVarOrDirectWord(OpCodeParser.PARAM_1);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public String decodeText() {
+        return TextDecoder.decode(text.rewind());
+    }
+
+    @Benchmark
+    public boolean skipText() {
+        return TextDecoder.skip(text.rewind());
+    }
+
+    @Benchmark
+    public String readText() {
+        string.getBuffer().rewind();
+        return string.readText();
+    }
+}
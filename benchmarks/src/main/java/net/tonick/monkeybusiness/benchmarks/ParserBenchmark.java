@@ -0,0 +1,66 @@
+package net.tonick.monkeybusiness.benchmarks;
+
+import net.tonick.monkeybusiness.parser.Script;
+import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.ScriptVisitor;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    private final ScriptParser parser = new ScriptParser();
+
+    @Benchmark
+    public Script parseLargestScript(GameData game) {
+        return parser.parse(game.freshScript(game.largestScriptOffset));
+    }
+
+    @Benchmark
+    public void parseCorpus(GameData game, Blackhole blackhole) {
+        for (int offset : game.scriptOffsets) {
+            blackhole.consume(parser.parse(game.freshScript(offset)));
+        }
+    }
+
+    @Benchmark
+    public void packCorpus(GameData game, Blackhole blackhole) {
+        for (int offset : game.scriptOffsets) {
+            blackhole.consume(parser.pack(game.freshScript(offset)));
+        }
+    }
+
+    @Benchmark
+    public long visitCorpus(GameData game) {
+        long[] operandSum = new long[1];
+        ScriptVisitor visitor = new ScriptVisitor() {
+            @Override
+            public boolean visitInstruction(byte opcode, int offset, int length, Operands operands) {
+                for (int i = 0; i < operands.size(); i++) {
+                    operandSum[0] += operands.get(i);
+                }
+                return true;
+            }
+        };
+        for (int offset : game.scriptOffsets) {
+            parser.visit(game.freshScript(offset), visitor);
+        }
+        return operandSum[0];
+    }
+
+    @Benchmark
+    public void extractTextsCorpus(GameData game, Blackhole blackhole) {
+        for (int offset : game.scriptOffsets) {
+            parser.extractTexts(game.freshScript(offset), blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public List<TextRecord> extractTextsCorpusParallel(GameData game) {
+        return parser.extractTexts(game.scripts, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -1,36 +1,165 @@
 package net.tonick.monkeybusiness;
 
-import net.tonick.monkeybusiness.opcodes.ITextContainer;
+import net.tonick.monkeybusiness.output.RecordWriter;
+import net.tonick.monkeybusiness.parser.GameSnapshot;
 import net.tonick.monkeybusiness.parser.Script;
 import net.tonick.monkeybusiness.parser.ScriptExtractor;
 import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.ScriptQuery;
+import net.tonick.monkeybusiness.parser.TextIndex;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import net.tonick.monkeybusiness.pipeline.TextPipeline;
 import net.tonick.monkeybusiness.util.TextBeautifier;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * A Scumm v5 text extractor
+ * <p>
+ * Usage: {@code App [--parallel[=threads]] [--index[=cache dir]] [--snapshot=file] [--out=dir] [--pipeline]
+ * [--format=text|jsonl|tsv|binary] [--type=LSCR,VERB] [--room=5,7] [--offset=from-to] [--opcode=Print,PrintEgo]
+ * <game file>...}
+ * <p>
+ * With {@code --index} the texts are read from a sidecar index (see {@link TextIndex}), which is built on the
+ * first run and whenever the game file changed. {@code --snapshot} writes the parsed game to a
+ * {@link GameSnapshot} instead of printing the texts. {@code --format} selects the {@link RecordWriter} for the
+ * texts, all but {@code text} include where a text was found.
+ * <p>
+ * {@code --type}, {@code --room}, {@code --offset} (block offsets, decimal or 0x hex, end exclusive) and
+ * {@code --opcode} restrict the export to some scripts and instructions, see {@link ScriptQuery}. The filters
+ * are applied while walking the file, so unselected parts are neither decoded nor parsed. They only apply to
+ * the export of a single file.
+ * <p>
+ * Several files, directories or globs run in batch mode (see {@link BatchExtractor}): the files are processed
+ * concurrently, each into its own text file, and a throughput summary is printed. With {@code --pipeline} they
+ * run through the staged {@link TextPipeline} instead, which also reports every stage.
  */
 public class App {
     public static void main(String... args) throws IOException {
-        File gameFile = new File(args[0]);
-        byte[] bytes = ScriptExtractor.readFile(gameFile);
-
-        // Extract all scripts from file
-        List<Script> scripts = ScriptExtractor.extractScripts(bytes);
+        List<String> inputs = new ArrayList<>();
+        File outputDir = null;
+        int parallelism = 1;
+        boolean useIndex = false;
+        File cacheDir = null;
+        File snapshotFile = null;
+        boolean pipeline = false;
+        RecordWriter.Format format = RecordWriter.Format.TEXT;
+        ScriptQuery query = ScriptQuery.all();
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                parallelism = Integer.parseInt(arg.substring("--parallel=".length()));
+            } else if (arg.equals("--index")) {
+                useIndex = true;
+            } else if (arg.startsWith("--index=")) {
+                useIndex = true;
+                cacheDir = new File(arg.substring("--index=".length()));
+            } else if (arg.startsWith("--snapshot=")) {
+                snapshotFile = new File(arg.substring("--snapshot=".length()));
+            } else if (arg.startsWith("--format=")) {
+                format = RecordWriter.Format.valueOf(arg.substring("--format=".length()).toUpperCase());
+            } else if (arg.equals("--pipeline")) {
+                pipeline = true;
+            } else if (arg.startsWith("--type=")) {
+                query.setTypes(arg.substring("--type=".length()).toUpperCase().split(","));
+            } else if (arg.startsWith("--room=")) {
+                query.setRooms(parseInts(arg.substring("--room=".length())));
+            } else if (arg.startsWith("--offset=")) {
+                String[] range = arg.substring("--offset=".length()).split("-", 2);
+                query.setOffsets(Integer.decode(range[0]), range.length > 1 ? Integer.decode(range[1]) : Integer.MAX_VALUE);
+            } else if (arg.startsWith("--opcode=")) {
+                query.setOpcodes(arg.substring("--opcode=".length()).split(","));
+            } else if (arg.startsWith("--out=")) {
+                outputDir = new File(arg.substring("--out=".length()));
+            } else {
+                inputs.add(arg);
+            }
+        }
 
         ScriptParser parser = new ScriptParser();
-        List<String> collect = scripts.stream()
-                .map(parser::parse)
-                .flatMap(s -> s.getOpCodes().stream())
-                .filter(oc -> oc instanceof ITextContainer)
-                .map(oc -> (ITextContainer) oc)
-                .filter(oc -> oc.getText() != null && !oc.getText().isEmpty() && !oc.getText().isBlank())
-                .map(TextBeautifier::beautify)
-                .toList();
-
-        collect.forEach(System.out::println);
+        List<File> gameFiles = BatchExtractor.resolve(inputs);
+        boolean batch = outputDir != null || inputs.size() > 1 || !gameFiles.equals(List.of(new File(inputs.get(0))));
+        if (!query.isAll() && (batch || useIndex || snapshotFile != null)) {
+            throw new IllegalArgumentException("Filters only apply to the export of a single file without --index or --snapshot");
+        }
+        if (batch && pipeline) {
+            TextPipeline textPipeline = new TextPipeline(parser).setOutputDir(outputDir);
+            if (parallelism > 1) {
+                textPipeline.setParallelism(TextPipeline.Step.PARSE, parallelism);
+            }
+            System.out.println(textPipeline.run(gameFiles));
+            System.out.print(textPipeline.report());
+            System.out.println(textPipeline.getParseCache());
+            return;
+        }
+        if (batch) {
+            BatchExtractor extractor = new BatchExtractor(parser)
+                    .setOutputDir(outputDir)
+                    .setUseIndex(useIndex, cacheDir);
+            if (parallelism > 1) {
+                extractor.setCpuThreads(parallelism);
+            }
+            System.out.println(extractor.run(gameFiles));
+            System.out.println(extractor.getParseCache());
+            return;
+        }
+
+        File gameFile = gameFiles.get(0);
+        if (snapshotFile != null) {
+            ByteBuffer data = ScriptExtractor.mapFile(gameFile);
+            GameSnapshot.write(snapshotFile, ScriptExtractor.extractScripts(data), parser, parallelism);
+            return;
+        }
+
+        // Texts are written as soon as they are found, through a buffered channel instead of System.out
+        WritableByteChannel out = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+        try (RecordWriter writer = RecordWriter.open(format, out, RecordWriter.DEFAULT_BUFFER_SIZE)) {
+            Consumer<TextRecord> sink = record -> write(writer, record);
+            if (useIndex) {
+                TextIndex.load(gameFile, cacheDir, parser, parallelism).forEachText(sink);
+                return;
+            }
+
+            if (!query.isAll()) {
+                // Only the selected scripts are decoded
+                List<Script> scripts = ScriptExtractor.extractScripts(gameFile, query);
+                parser.extractTexts(scripts.stream(), parallelism, query, sink);
+                return;
+            }
+
+            // Scripts are parsed while the file is walked
+            Stream<Script> scripts = ScriptExtractor.streamScripts(ScriptExtractor.mapFile(gameFile));
+            parser.extractTexts(scripts, parallelism, sink);
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        return Stream.of(list.split(",")).mapToInt(Integer::decode).toArray();
+    }
+
+    private static void write(RecordWriter writer, TextRecord record) {
+        String text = record.getText();
+        if (text == null || text.isBlank()) {
+            return;
+        }
+
+        try {
+            writer.write(new TextRecord(record.getScriptType(), record.getScriptOffset(), record.getOpCodeOffset(),
+                    record.getActor(), TextBeautifier.beautify(text)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
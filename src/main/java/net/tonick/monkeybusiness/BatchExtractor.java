@@ -0,0 +1,405 @@
+package net.tonick.monkeybusiness;
+
+import net.tonick.monkeybusiness.parser.ParseCache;
+import net.tonick.monkeybusiness.parser.Script;
+import net.tonick.monkeybusiness.parser.ScriptExtractor;
+import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.TextIndex;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import net.tonick.monkeybusiness.util.TextBeautifier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Extracts the texts of many game files in one JVM.
+ * <p>
+ * Every file gets its own virtual thread, so reading and writing files never blocks the others. Parsing is CPU
+ * bound and limited to {@link #setCpuThreads(int)} files at a time. The texts of each file are written to
+ * {@code <name>.txt} in the output directory, or next to the game file if there is none. All files share the
+ * {@link ParseCache} of the parser, so scripts that repeat across files, e.g. in several editions of a game, are
+ * decoded once.
+ */
+public class BatchExtractor {
+    private static final Logger logger = LogManager.getLogger(BatchExtractor.class);
+
+    public static final String DATA_FILE_GLOB = "*.001";
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final ScriptParser parser;
+    private int cpuThreads = Runtime.getRuntime().availableProcessors();
+    private File outputDir;
+    private boolean useIndex;
+    private File cacheDir;
+
+    /**
+     * @param parser parser for all files, gets a {@link ParseCache} of {@link ParseCache#DEFAULT_MAX_SIZE} entries
+     *               if it has none
+     */
+    public BatchExtractor(ScriptParser parser) {
+        this.parser = parser;
+        if (parser.getParseCache() == null) {
+            parser.setParseCache(new ParseCache(ParseCache.DEFAULT_MAX_SIZE, ParseCache.Eviction.LRU));
+        }
+    }
+
+    public ParseCache getParseCache() {
+        return parser.getParseCache();
+    }
+
+    /**
+     * @param parseCache cache shared by all files, and by everything else using the parser; null to always decode
+     */
+    public BatchExtractor setParseCache(ParseCache parseCache) {
+        parser.setParseCache(parseCache);
+        return this;
+    }
+
+    /**
+     * @param cpuThreads number of files parsed at the same time
+     */
+    public BatchExtractor setCpuThreads(int cpuThreads) {
+        if (cpuThreads < 1) {
+            throw new IllegalArgumentException("cpuThreads must be at least 1");
+        }
+        this.cpuThreads = cpuThreads;
+        return this;
+    }
+
+    /**
+     * @param outputDir directory for the text files, null to write them next to the game files
+     */
+    public BatchExtractor setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+        return this;
+    }
+
+    /**
+     * Read the texts from a {@link TextIndex}, see {@link TextIndex#load(File, File, ScriptParser, int)}
+     */
+    public BatchExtractor setUseIndex(boolean useIndex, File cacheDir) {
+        this.useIndex = useIndex;
+        this.cacheDir = cacheDir;
+        return this;
+    }
+
+    /**
+     * Resolve the command line inputs into game files. An input is a file, a directory (all {@value DATA_FILE_GLOB}
+     * files in it) or a glob like {@code games/**}{@code /*.001}, which is matched relative to the directory in
+     * front of its first wildcard.
+     *
+     * @return the files in input order, each at most once
+     * @throws IOException
+     */
+    public static List<File> resolve(List<String> inputs) throws IOException {
+        LinkedHashSet<File> files = new LinkedHashSet<>();
+        for (String input : inputs) {
+            int wildcard = indexOfAny(input, GLOB_CHARS);
+            Path base;
+            String glob;
+            if (wildcard >= 0) {
+                int separator = Math.max(input.lastIndexOf('/', wildcard), input.lastIndexOf(File.separatorChar, wildcard));
+                base = Path.of(separator < 0 ? "." : input.substring(0, separator + 1));
+                glob = input.substring(separator + 1);
+            } else if (new File(input).isDirectory()) {
+                base = Path.of(input);
+                glob = DATA_FILE_GLOB;
+            } else {
+                files.add(new File(input));
+                continue;
+            }
+
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            try (Stream<Path> paths = glob.contains("/") || glob.contains("**") ? Files.walk(base) : Files.list(base)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> matcher.matches(base.relativize(path)))
+                        .sorted()
+                        .forEach(path -> files.add(path.toFile()));
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Process all files concurrently. A file that fails is reported in its {@link Result}, the others go on.
+     *
+     * @return per file results in input order and the totals
+     */
+    public Summary run(List<File> gameFiles) {
+        Map<File, File> outputs = outputFiles(gameFiles, outputDir);
+        Semaphore cpu = new Semaphore(cpuThreads);
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>(gameFiles.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Result>> futures = new ArrayList<>(gameFiles.size());
+            for (File gameFile : gameFiles) {
+                futures.add(executor.submit(() -> process(gameFile, outputs.get(gameFile), cpu)));
+            }
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return new Summary(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Output file per game file. In an output directory, files with the same name are prefixed with their path
+     * relative to the deepest directory all of them are in, e.g. {@code a-en-monkey.001.txt} and
+     * {@code b-en-monkey.001.txt}. Any name that is still taken gets a counter. Names are compared ignoring case.
+     *
+     * @param outputDir directory for the text files, null to put them next to the game files
+     */
+    public static Map<File, File> outputFiles(List<File> gameFiles, File outputDir) {
+        Map<String, List<Path>> directoriesByName = new HashMap<>();
+        for (File gameFile : gameFiles) {
+            directoriesByName.computeIfAbsent(gameFile.getName().toLowerCase(), name -> new ArrayList<>())
+                    .add(gameFile.toPath().toAbsolutePath().normalize().getParent());
+        }
+
+        Map<File, File> outputs = new HashMap<>();
+        Set<String> taken = new HashSet<>();
+        for (File gameFile : gameFiles) {
+            if (outputDir == null) {
+                outputs.put(gameFile, new File(gameFile.getAbsoluteFile().getParentFile(), gameFile.getName() + ".txt"));
+                continue;
+            }
+
+            String name = gameFile.getName();
+            List<Path> directories = directoriesByName.get(name.toLowerCase());
+            if (directories.size() > 1) {
+                Path directory = gameFile.toPath().toAbsolutePath().normalize().getParent();
+                Path base = commonBase(directories);
+                // Different file system roots have no common base
+                name = prefix(base != null ? base.relativize(directory) : directory.getRoot().relativize(directory)) + name;
+            }
+
+            String unique = name;
+            for (int counter = 2; !taken.add(unique.toLowerCase()); counter++) {
+                unique = name + "-" + counter;
+            }
+            outputs.put(gameFile, new File(outputDir, unique + ".txt"));
+        }
+        return outputs;
+    }
+
+    private static Path commonBase(List<Path> directories) {
+        Path base = directories.get(0);
+        for (Path directory : directories) {
+            while (base != null && !directory.startsWith(base)) {
+                base = base.getParent();
+            }
+        }
+        return base;
+    }
+
+    /**
+     * @return the names of the path joined by '-', with a trailing '-' unless it is empty
+     */
+    private static String prefix(Path relative) {
+        StringBuilder prefix = new StringBuilder();
+        for (Path name : relative) {
+            if (!name.toString().isEmpty()) {
+                prefix.append(name).append('-');
+            }
+        }
+        return prefix.toString();
+    }
+
+    private Result process(File gameFile, File outputFile, Semaphore cpu) {
+        long start = System.nanoTime();
+        try {
+            List<TextRecord> texts;
+            int scripts;
+            cpu.acquire();
+            try {
+                if (useIndex) {
+                    TextIndex index = TextIndex.load(gameFile, cacheDir, parser, 1);
+                    scripts = index.getScriptCount();
+                    texts = new ArrayList<>(index.getTextCount());
+                    index.forEachText(texts::add);
+                } else {
+                    ByteBuffer data = ScriptExtractor.mapFile(gameFile);
+                    List<Script> extracted = ScriptExtractor.extractScripts(data);
+                    scripts = extracted.size();
+                    texts = parser.extractTexts(extracted, 1);
+                }
+            } finally {
+                cpu.release();
+            }
+
+            Files.createDirectories(outputFile.getAbsoluteFile().getParentFile().toPath());
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+                for (TextRecord record : texts) {
+                    String text = record.getText();
+                    if (text != null && !text.isBlank()) {
+                        writer.write(TextBeautifier.beautify(text));
+                        writer.newLine();
+                    }
+                }
+            }
+
+            return new Result(gameFile, outputFile, gameFile.length(), scripts, texts.size(), System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to process {}", gameFile, e);
+            return new Result(gameFile, outputFile, gameFile.length(), 0, 0, System.nanoTime() - start, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(gameFile, outputFile, gameFile.length(), 0, 0, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * Outcome of a single game file
+     */
+    public static class Result {
+        private final File gameFile;
+        private final File outputFile;
+        private final long bytes;
+        private final int scripts;
+        private final int texts;
+        private final long nanos;
+        private final Exception error;
+
+        public Result(File gameFile, File outputFile, long bytes, int scripts, int texts, long nanos, Exception error) {
+            this.gameFile = gameFile;
+            this.outputFile = outputFile;
+            this.bytes = bytes;
+            this.scripts = scripts;
+            this.texts = texts;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public File getGameFile() {
+            return gameFile;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getScripts() {
+            return scripts;
+        }
+
+        public int getTexts() {
+            return texts;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return why the file failed, null if it succeeded
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s, %d scripts, %d texts, %.1f ms", gameFile,
+                    error == null ? outputFile : "FAILED " + error, scripts, texts, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Results of all files and the throughput of the whole batch
+     */
+    public static class Summary {
+        private final List<Result> results;
+        private final long nanos;
+
+        public Summary(List<Result> results, long nanos) {
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        public List<Result> getResults() {
+            return results;
+        }
+
+        /**
+         * @return wall clock time of the batch
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getFailures() {
+            return (int) results.stream().filter(result -> !result.isSuccess()).count();
+        }
+
+        public long getBytes() {
+            return results.stream().mapToLong(Result::getBytes).sum();
+        }
+
+        public long getTexts() {
+            return results.stream().mapToLong(Result::getTexts).sum();
+        }
+
+        /**
+         * @return game file bytes processed per second of wall clock time
+         */
+        public double getBytesPerSecond() {
+            return nanos == 0 ? 0 : getBytes() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            results.forEach(result -> sb.append(result).append(System.lineSeparator()));
+            sb.append(String.format("%d files (%d failed), %.1f MB, %d texts in %.1f ms: %.1f MB/s, %.0f texts/s",
+                    results.size(), getFailures(), getBytes() / 1e6, getTexts(), nanos / 1e6,
+                    getBytesPerSecond() / 1e6, nanos == 0 ? 0 : getTexts() * 1e9 / nanos));
+            return sb.toString();
+        }
+    }
+}
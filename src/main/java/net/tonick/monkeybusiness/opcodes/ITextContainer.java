@@ -2,4 +2,8 @@ package net.tonick.monkeybusiness.opcodes;
 
 public interface ITextContainer {
     String getText();
+
+    default String getActor() {
+        return null;
+    }
 }
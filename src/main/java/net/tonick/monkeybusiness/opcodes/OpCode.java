@@ -1,8 +1,12 @@
 package net.tonick.monkeybusiness.opcodes;
 
+import java.nio.ByteBuffer;
+
 public class OpCode {
     private byte opCode;
-    private byte[] originalBytes;
+    private ByteBuffer source;
+    private int offset;
+    private int length;
 
     public void setOpCode(byte opCode) {
         this.opCode = opCode;
@@ -13,10 +17,46 @@ public class OpCode {
     }
 
     public void setOriginalBytes(byte[] originalBytes) {
-        this.originalBytes = originalBytes;
+        if (originalBytes == null) {
+            setSource(null, 0, 0);
+        } else {
+            setSource(ByteBuffer.wrap(originalBytes), 0, originalBytes.length);
+        }
+    }
+
+    /**
+     * Point this opcode at its bytes inside the script buffer. Nothing is copied.
+     *
+     * @param source script buffer, indexed from the start of the script
+     * @param offset index of the opcode byte in source
+     * @param length number of bytes including the opcode byte
+     */
+    public void setSource(ByteBuffer source, int offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
     }
 
+    /**
+     * @return a copy of the opcode's bytes, null if it has no source
+     */
     public byte[] getOriginalBytes() {
-        return originalBytes;
+        if (source == null) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        source.get(offset, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return offset of the opcode relative to the start of its script
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
     }
 }
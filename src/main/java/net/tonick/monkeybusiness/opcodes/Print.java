@@ -30,6 +30,7 @@ public class Print extends OpCode implements ITextContainer {
                 '}';
     }
 
+    @Override
     public String getActor() {
         return actor;
     }
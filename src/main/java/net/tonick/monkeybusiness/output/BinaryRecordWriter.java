@@ -0,0 +1,109 @@
+package net.tonick.monkeybusiness.output;
+
+import net.tonick.monkeybusiness.parser.TextRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Length prefixed binary records, little-endian. The stream starts with the magic "MBTR" and a version, then
+ * every record is its length (not counting the length itself), script type (4 ASCII bytes), script offset,
+ * opcode offset, actor and text. Strings are their UTF-8 length followed by the UTF-8 bytes, -1 for null.
+ */
+public class BinaryRecordWriter extends RecordWriter {
+    private static final byte[] MAGIC = "MBTR".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    private boolean headerWritten;
+
+    public BinaryRecordWriter(WritableByteChannel channel, int bufferSize) {
+        super(channel, bufferSize);
+    }
+
+    @Override
+    public void write(TextRecord record) throws IOException {
+        ensure(32 + maxBytes(record.getActor(), 3) + maxBytes(record.getText(), 3));
+        if (!headerWritten) {
+            buffer.put(MAGIC).putInt(VERSION);
+            headerWritten = true;
+        }
+
+        int start = buffer.position();
+        buffer.putInt(0);
+        String type = record.getScriptType();
+        for (int i = 0; i < 4; i++) {
+            buffer.put(type != null && i < type.length() ? (byte) type.charAt(i) : (byte) ' ');
+        }
+        buffer.putInt(record.getScriptOffset());
+        buffer.putInt(record.getOpCodeOffset());
+        putString(record.getActor());
+        putString(record.getText());
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int start = buffer.position();
+        buffer.putInt(0);
+        for (int i = 0; i < s.length(); ) {
+            i = putUtf8(s, i);
+        }
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * Read all records of a binary record stream
+     *
+     * @throws IOException if the stream is no record stream or has another version
+     */
+    public static List<TextRecord> read(ByteBuffer bytes) throws IOException {
+        ByteBuffer in = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        List<TextRecord> records = new ArrayList<>();
+        if (!in.hasRemaining()) {
+            return records;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        if (in.remaining() < MAGIC.length + Integer.BYTES) {
+            throw new IOException("Not a record stream");
+        }
+        in.get(magic);
+        int version = in.getInt();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+            throw new IOException("Not a record stream of version " + VERSION);
+        }
+
+        while (in.hasRemaining()) {
+            int length = in.getInt();
+            int end = in.position() + length;
+            byte[] type = new byte[4];
+            in.get(type);
+            int scriptOffset = in.getInt();
+            int opCodeOffset = in.getInt();
+            String actor = readString(in);
+            String text = readString(in);
+            records.add(new TextRecord(new String(type, StandardCharsets.US_ASCII), scriptOffset, opCodeOffset, actor, text));
+            in.position(end);
+        }
+        return records;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package net.tonick.monkeybusiness.output;
+
+import net.tonick.monkeybusiness.parser.TextRecord;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One JSON object per line:
+ * {@code {"scriptType":"LSCR","scriptOffset":1234,"opCodeOffset":1250,"actor":null,"text":"..."}}
+ */
+public class JsonlRecordWriter extends RecordWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    public JsonlRecordWriter(WritableByteChannel channel, int bufferSize) {
+        super(channel, bufferSize);
+    }
+
+    @Override
+    public void write(TextRecord record) throws IOException {
+        // An escaped control character takes 6 bytes
+        ensure(128 + maxBytes(record.getScriptType(), 6) + maxBytes(record.getActor(), 6) + maxBytes(record.getText(), 6));
+
+        putAscii("{\"scriptType\":");
+        putString(record.getScriptType());
+        putAscii(",\"scriptOffset\":");
+        putDecimal(record.getScriptOffset());
+        putAscii(",\"opCodeOffset\":");
+        putDecimal(record.getOpCodeOffset());
+        putAscii(",\"actor\":");
+        putString(record.getActor());
+        putAscii(",\"text\":");
+        putString(record.getText());
+        putAscii("}\n");
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putAscii("null");
+            return;
+        }
+
+        buffer.put((byte) '"');
+        for (int i = 0; i < s.length(); ) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c == '\n') {
+                putAscii("\\n");
+            } else if (c == '\r') {
+                putAscii("\\r");
+            } else if (c == '\t') {
+                putAscii("\\t");
+            } else if (c < 0x20) {
+                putAscii("\\u00");
+                buffer.put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else {
+                i = putUtf8(s, i);
+                continue;
+            }
+            i++;
+        }
+        buffer.put((byte) '"');
+    }
+}
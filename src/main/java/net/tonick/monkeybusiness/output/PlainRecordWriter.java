@@ -0,0 +1,25 @@
+package net.tonick.monkeybusiness.output;
+
+import net.tonick.monkeybusiness.parser.TextRecord;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * One text per line, the format {@code App} always printed
+ */
+public class PlainRecordWriter extends RecordWriter {
+    public PlainRecordWriter(WritableByteChannel channel, int bufferSize) {
+        super(channel, bufferSize);
+    }
+
+    @Override
+    public void write(TextRecord record) throws IOException {
+        String text = record.getText() == null ? "" : record.getText();
+        ensure(maxBytes(text, 3) + 1);
+        for (int i = 0; i < text.length(); ) {
+            i = putUtf8(text, i);
+        }
+        buffer.put((byte) '\n');
+    }
+}
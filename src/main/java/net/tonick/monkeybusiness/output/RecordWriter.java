@@ -0,0 +1,140 @@
+package net.tonick.monkeybusiness.output;
+
+import net.tonick.monkeybusiness.parser.TextRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams {@link TextRecord}s to a channel through a large direct buffer, which is only handed to the channel
+ * when it is full or flushed. Strings are encoded to UTF-8 straight into the buffer.
+ * <p>
+ * Writers are not thread safe. The streaming text export of
+ * {@link net.tonick.monkeybusiness.parser.ScriptParser} never calls its sink concurrently.
+ */
+public abstract class RecordWriter implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    public enum Format {
+        TEXT,   // one text per line, nothing else
+        JSONL,  // one JSON object per line
+        TSV,    // tab separated with a header line
+        BINARY  // length prefixed records, see BinaryRecordWriter
+    }
+
+    private final WritableByteChannel channel;
+    protected ByteBuffer buffer;
+
+    protected RecordWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param bufferSize size of the direct buffer, see {@link #DEFAULT_BUFFER_SIZE}
+     * @return a writer for the format
+     */
+    public static RecordWriter open(Format format, WritableByteChannel channel, int bufferSize) {
+        return switch (format) {
+            case TEXT -> new PlainRecordWriter(channel, bufferSize);
+            case JSONL -> new JsonlRecordWriter(channel, bufferSize);
+            case TSV -> new TsvRecordWriter(channel, bufferSize);
+            case BINARY -> new BinaryRecordWriter(channel, bufferSize);
+        };
+    }
+
+    public abstract void write(TextRecord record) throws IOException;
+
+    /**
+     * Hand everything buffered to the channel
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Make room for the given number of bytes, growing the buffer if a single record is larger than it
+     */
+    protected final void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        flush();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes) << 1).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return the most bytes the UTF-8 encoding of the string can take, escapes included
+     */
+    protected static int maxBytes(String s, int bytesPerChar) {
+        return s == null ? 0 : s.length() * bytesPerChar;
+    }
+
+    protected final void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    protected final void putDecimal(int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+            if (value < 0) {
+                putAscii("2147483648");
+                return;
+            }
+        }
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Encode the character at index i, a surrogate pair counts as one
+     *
+     * @return index of the next character
+     */
+    protected final int putUtf8(String s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer.put((byte) (0xF0 | cp >> 18))
+                    .put((byte) (0x80 | cp >> 12 & 0x3F))
+                    .put((byte) (0x80 | cp >> 6 & 0x3F))
+                    .put((byte) (0x80 | cp & 0x3F));
+            return i + 2;
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+        return i + 1;
+    }
+}
@@ -0,0 +1,61 @@
+package net.tonick.monkeybusiness.output;
+
+import net.tonick.monkeybusiness.parser.TextRecord;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Tab separated values with a header line. Tabs, line breaks and backslashes in the actor and text are escaped
+ * as {@code \t}, {@code \n}, {@code \r} and {@code \\}, a missing actor is an empty field.
+ */
+public class TsvRecordWriter extends RecordWriter {
+    public static final String HEADER = "scriptType\tscriptOffset\topCodeOffset\tactor\ttext\n";
+
+    private boolean headerWritten;
+
+    public TsvRecordWriter(WritableByteChannel channel, int bufferSize) {
+        super(channel, bufferSize);
+    }
+
+    @Override
+    public void write(TextRecord record) throws IOException {
+        ensure(HEADER.length() + 64 + maxBytes(record.getScriptType(), 3) + maxBytes(record.getActor(), 3)
+                + maxBytes(record.getText(), 3));
+        if (!headerWritten) {
+            putAscii(HEADER);
+            headerWritten = true;
+        }
+
+        putField(record.getScriptType());
+        buffer.put((byte) '\t');
+        putDecimal(record.getScriptOffset());
+        buffer.put((byte) '\t');
+        putDecimal(record.getOpCodeOffset());
+        buffer.put((byte) '\t');
+        putField(record.getActor());
+        buffer.put((byte) '\t');
+        putField(record.getText());
+        buffer.put((byte) '\n');
+    }
+
+    private void putField(String s) {
+        if (s == null) {
+            return;
+        }
+        for (int i = 0; i < s.length(); ) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\t' -> putAscii("\\t");
+                case '\n' -> putAscii("\\n");
+                case '\r' -> putAscii("\\r");
+                case '\\' -> putAscii("\\\\");
+                default -> {
+                    i = putUtf8(s, i);
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+}
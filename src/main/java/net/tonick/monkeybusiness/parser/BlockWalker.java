@@ -0,0 +1,278 @@
+package net.tonick.monkeybusiness.parser;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the Scumm v5 block tree (LECF -> LFLF -> ROOM -> OBCD) following the big-endian length headers
+ * and yields every script block in file order, together with its room and parent block.
+ * <p>
+ * Only container blocks are descended into, everything else is skipped by its length, so a full walk
+ * reads one header per block instead of comparing every byte of the file. With a {@link ScriptQuery} containers
+ * that can't hold a selected script are skipped as well.
+ * <p>
+ * The walker can also run over the raw, still XOR'ed file: headers are then decoded as they are read and only
+ * the selected script blocks are decoded, into buffers of their own.
+ */
+public class BlockWalker implements Iterator<Script> {
+    private static final Logger logger = LogManager.getLogger(BlockWalker.class);
+
+    public static final String LECF = "LECF"; // file container
+    public static final String LOFF = "LOFF"; // room offset table
+    public static final String LFLF = "LFLF"; // room resource container
+    public static final String ROOM = "ROOM"; // room
+    public static final String OBCD = "OBCD"; // object code
+    public static final int HEADER_LENGTH = 8;
+
+    private static final int TAG_LECF = tag(LECF);
+    private static final int TAG_LOFF = tag(LOFF);
+    private static final int TAG_LFLF = tag(LFLF);
+    private static final int TAG_ROOM = tag(ROOM);
+    private static final int TAG_OBCD = tag(OBCD);
+    private static final int TAG_SCRP = tag(ScriptExtractor.SCRP);
+    private static final int TAG_LSCR = tag(ScriptExtractor.LSCR);
+    private static final int TAG_EXCD = tag(ScriptExtractor.EXCD);
+    private static final int TAG_ENCD = tag(ScriptExtractor.ENCD);
+    private static final int TAG_VERB = tag(ScriptExtractor.OBCD);
+
+    private final ByteBuffer bytes;
+    private final ScriptQuery query;
+    private final boolean encoded;
+    private final int keyInt;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final Map<Integer, Integer> roomsByOffset;
+    private Script next;
+
+    public BlockWalker(ByteBuffer bytes) {
+        this(bytes, 0, bytes.limit());
+    }
+
+    /**
+     * Walk the sibling blocks found in [start, end)
+     */
+    public BlockWalker(ByteBuffer bytes, int start, int end) {
+        this(bytes, start, end, ScriptQuery.all(), false);
+    }
+
+    /**
+     * Walk the selected scripts of a file
+     *
+     * @param bytes   file contents
+     * @param query   scripts to yield
+     * @param encoded true if the contents are still XOR'ed with {@link ScriptExtractor#XOR_KEY}
+     */
+    public BlockWalker(ByteBuffer bytes, ScriptQuery query, boolean encoded) {
+        this(bytes, 0, bytes.limit(), query, encoded);
+    }
+
+    private BlockWalker(ByteBuffer bytes, int start, int end, ScriptQuery query, boolean encoded) {
+        this(bytes, new HashMap<>(), query, encoded);
+        stack.push(new Frame(null, -1, start, end, -1));
+    }
+
+    private BlockWalker(ByteBuffer bytes, Map<Integer, Integer> roomsByOffset, ScriptQuery query, boolean encoded) {
+        this.bytes = bytes;
+        this.roomsByOffset = roomsByOffset;
+        this.query = query;
+        this.encoded = encoded;
+        this.keyInt = encoded ? (ScriptExtractor.XOR_KEY & 0xFF) * 0x01010101 : 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Script next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Script script = next;
+        next = null;
+        return script;
+    }
+
+    private Script advance() {
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            int idx = frame.position;
+            if (idx + HEADER_LENGTH > frame.end) {
+                stack.pop();
+                continue;
+            }
+
+            int tag = readInt(idx);
+            int length = readInt(idx + ScriptExtractor.SCRIPT_TAG_LENGTH);
+            if (length < HEADER_LENGTH || length > frame.end - idx) {
+                logger.printf(Level.WARN, "@ %08X: Invalid block length %d, skipping rest of %s", idx, length, frame.type);
+                stack.pop();
+                continue;
+            }
+            frame.position = idx + length;
+
+            if (tag == TAG_LOFF) {
+                readRoomOffsets(idx, length);
+            } else if (!query.overlaps(idx, idx + length)) {
+                continue;
+            }
+
+            if (tag == TAG_LECF || (tag == TAG_ROOM && query.selectsRoomScripts())
+                    || (tag == TAG_OBCD && query.matchesType(ScriptExtractor.OBCD))) {
+                stack.push(new Frame(tagName(tag), idx, idx + HEADER_LENGTH, idx + length, frame.room));
+            } else if (tag == TAG_LFLF) {
+                // The room of a LFLF is identified by the offset of its first child, the ROOM block
+                int room = roomsByOffset.getOrDefault(idx + HEADER_LENGTH, -1);
+                if (room < 0 || query.matchesRoom(room)) {
+                    stack.push(new Frame(LFLF, idx, idx + HEADER_LENGTH, idx + length, room));
+                }
+            } else if (tag == TAG_SCRP || tag == TAG_LSCR || tag == TAG_EXCD || tag == TAG_ENCD || tag == TAG_VERB) {
+                String type = tagName(tag);
+                if (query.matchesType(type) && query.matchesRoom(frame.room) && query.matchesOffset(idx)) {
+                    Script script = readScript(type, idx, length);
+                    script.setRoom(frame.room);
+                    script.setParentType(frame.type);
+                    script.setParentOffset(frame.offset);
+                    return script;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Split off the scripts up to a block boundary near the middle of the outermost container that still has
+     * several blocks left. The returned walker yields the scripts before the split point, this walker continues
+     * after it.
+     *
+     * @return walker over the first part, null if the remaining blocks can't be split
+     */
+    public BlockWalker trySplit() {
+        // Walk to the first script, so the LOFF table preceding the rooms has been read
+        if (!hasNext()) {
+            return null;
+        }
+
+        Frame[] frames = stack.toArray(new Frame[0]); // deepest first
+        for (int level = frames.length - 1; level >= 0; level--) {
+            Frame frame = frames[level];
+            int split = findSplit(frame);
+            if (split < 0) {
+                continue;
+            }
+
+            BlockWalker prefix = new BlockWalker(bytes, new HashMap<>(roomsByOffset), query, encoded);
+            prefix.next = next;
+            prefix.stack.push(new Frame(frame.type, frame.offset, frame.position, split, frame.room));
+            for (int deeper = level - 1; deeper >= 0; deeper--) {
+                prefix.stack.push(frames[deeper]);
+                stack.pop();
+            }
+
+            next = null;
+            frame.position = split;
+            return prefix;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return offset of the sibling block boundary closest to the middle of the remaining blocks, -1 if there is
+     * none between the first and the last block
+     */
+    private int findSplit(Frame frame) {
+        int middle = frame.position + (frame.end - frame.position) / 2;
+        int idx = frame.position;
+        while (idx + HEADER_LENGTH <= frame.end) {
+            int length = readInt(idx + ScriptExtractor.SCRIPT_TAG_LENGTH);
+            if (length < HEADER_LENGTH || length > frame.end - idx) {
+                return -1;
+            }
+            idx += length;
+            if (idx >= middle) {
+                return idx < frame.end ? idx : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of bytes left to walk, an upper bound for the number of scripts left
+     */
+    public long estimateRemaining() {
+        long remaining = 0;
+        for (Frame frame : stack) {
+            remaining += frame.end - frame.position;
+        }
+        return remaining;
+    }
+
+    private int readInt(int idx) {
+        return ScriptExtractor.readIntBE(bytes, idx) ^ keyInt;
+    }
+
+    /**
+     * @return the script, a view into the file, or a decoded copy when walking the raw file
+     */
+    private Script readScript(String type, int idx, int length) {
+        return new Script(type, idx, length, block(idx, length));
+    }
+
+    private ByteBuffer block(int idx, int length) {
+        if (!encoded) {
+            return bytes.slice(idx, length);
+        }
+        ByteBuffer decoded = ByteBuffer.allocate(length);
+        ScriptExtractor.decode(bytes.slice(idx, length), decoded);
+        return decoded;
+    }
+
+    private void readRoomOffsets(int idx, int length) {
+        int[] roomOffsets = ScriptExtractor.readRoomOffsets(block(idx, length), 0);
+        for (int room = 0; room < roomOffsets.length; room++) {
+            if (roomOffsets[room] >= 0) {
+                roomsByOffset.put(roomOffsets[room], room);
+            }
+        }
+    }
+
+    static int tag(String tag) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.wrap(tagBytes).getInt();
+    }
+
+    static String tagName(int tag) {
+        return new String(ByteBuffer.allocate(Integer.BYTES).putInt(tag).array(), StandardCharsets.US_ASCII);
+    }
+
+    private static class Frame {
+        private final String type;
+        private final int offset;
+        private final int end;
+        private final int room;
+        private int position;
+
+        private Frame(String type, int offset, int position, int end, int room) {
+            this.type = type;
+            this.offset = offset;
+            this.position = position;
+            this.end = end;
+            this.room = room;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reader for the Scumm v5 index file (i.e. "monkey.000").
+ * <p>
+ * The index holds a directory per resource type, each being a list of (room number, offset) pairs.
+ * Offsets are relative to the start of the room's ROOM block, whose absolute position in turn comes
+ * from the LOFF table at the beginning of the data file (see {@link ScriptExtractor#readRoomOffsets(ByteBuffer)}).
+ */
+public class GameIndex {
+    public static final String DROO = "DROO"; // room directory
+    public static final String DSCR = "DSCR"; // global script directory
+
+    private static final int TAG_DROO = BlockWalker.tag(DROO);
+    private static final int TAG_DSCR = BlockWalker.tag(DSCR);
+    private static final int UNUSED_OFFSET = 0xFFFFFFFF;
+
+    private int[] roomDisks = new int[0];
+    private int[] scriptRooms = new int[0];
+    private int[] scriptOffsets = new int[0];
+
+    /**
+     * Read and XOR the index file
+     *
+     * @param file index file, e.g. "monkey.000"
+     * @return the index
+     * @throws IOException
+     */
+    public static GameIndex read(File file) throws IOException {
+        return read(ByteBuffer.wrap(ScriptExtractor.readFile(file)));
+    }
+
+    /**
+     * Read the index file belonging to a data file, i.e. "monkey.000" for "monkey.001"
+     */
+    public static GameIndex forDataFile(File dataFile) throws IOException {
+        String name = dataFile.getName();
+        int dot = name.lastIndexOf('.');
+        String indexName = (dot < 0 ? name : name.substring(0, dot)) + ".000";
+        return read(new File(dataFile.getAbsoluteFile().getParentFile(), indexName));
+    }
+
+    /**
+     * @param bytes decoded index file contents
+     */
+    public static GameIndex read(ByteBuffer bytes) {
+        GameIndex index = new GameIndex();
+        int idx = 0;
+        while (idx + BlockWalker.HEADER_LENGTH <= bytes.limit()) {
+            int tag = ScriptExtractor.readIntBE(bytes, idx);
+            int length = ScriptExtractor.readBlockLength(bytes, idx);
+            if (length < BlockWalker.HEADER_LENGTH) {
+                break;
+            }
+
+            if (tag == TAG_DROO) {
+                int[][] directory = readDirectory(bytes, idx, length);
+                index.roomDisks = directory[0];
+            } else if (tag == TAG_DSCR) {
+                int[][] directory = readDirectory(bytes, idx, length);
+                index.scriptRooms = directory[0];
+                index.scriptOffsets = directory[1];
+            }
+
+            idx += length;
+        }
+        return index;
+    }
+
+    /**
+     * Directory layout: 16-bit LE count, count room numbers (8 bit), count offsets (32-bit LE)
+     *
+     * @throws IllegalArgumentException if the entries don't fit in the block
+     */
+    private static int[][] readDirectory(ByteBuffer bytes, int idx, int length) {
+        ByteBuffer directory = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        directory.position(idx + BlockWalker.HEADER_LENGTH);
+
+        int available = Math.min(length, bytes.limit() - idx) - BlockWalker.HEADER_LENGTH;
+        int count = available < 2 ? -1 : directory.getShort() & 0xFFFF;
+        if (count < 0 || 2 + 5L * count > available) {
+            throw new IllegalArgumentException(String.format("Invalid directory @ %08X: %d entries don't fit in %d bytes",
+                    idx, count, available));
+        }
+        int[] rooms = new int[count];
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            rooms[i] = directory.get() & 0xFF;
+        }
+        for (int i = 0; i < count; i++) {
+            offsets[i] = directory.getInt();
+        }
+        return new int[][]{rooms, offsets};
+    }
+
+    public int getRoomCount() {
+        return roomDisks.length;
+    }
+
+    /**
+     * @return number of the data file (disk) a room is stored in
+     */
+    public int getRoomDisk(int room) {
+        return roomDisks[room];
+    }
+
+    public int getScriptCount() {
+        return scriptRooms.length;
+    }
+
+    public boolean hasScript(int script) {
+        return script >= 0 && script < scriptRooms.length
+                && scriptRooms[script] != 0 && scriptOffsets[script] != UNUSED_OFFSET;
+    }
+
+    /**
+     * @return room the global script is stored in
+     */
+    public int getScriptRoom(int script) {
+        return scriptRooms[script];
+    }
+
+    /**
+     * @return offset of the global script relative to the start of its room
+     */
+    public int getScriptOffset(int script) {
+        return scriptOffsets[script];
+    }
+}
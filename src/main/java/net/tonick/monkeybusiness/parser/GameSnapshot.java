@@ -0,0 +1,287 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of a fully parsed game: every script with its bytes, instructions, operands, diagnostics and
+ * texts. Reopening a snapshot memory maps it and reads nothing up front, scripts, {@link PackedScript}s and
+ * {@link TextRecord}s are created when asked for. {@link net.tonick.monkeybusiness.opcodes.OpCode} objects
+ * come from {@link PackedScript#getOpCode(int, ScriptParser)}, which decodes a single instruction.
+ * <p>
+ * Layout, little-endian, every section starts at a multiple of 4:
+ * <pre>
+ * header        magic "MBSN", version, script count, instruction count, operand count, text count,
+ *               script bytes length
+ * scripts       per script: type tag, offset, length, room, parent type tag, parent offset,
+ *               diagnostics reason (-1 for none), opcode, offset, bytes position, bytes length,
+ *               first instruction, instruction count, first text, text count
+ * opcodes       one byte per instruction
+ * offsets       per instruction, relative to its script
+ * lengths       per instruction
+ * operand index per instruction and one more: index of its first operand
+ * operands      see {@link PackedScript#getOperand(int, int)}
+ * texts         per text: opcode offset, actor string, text string
+ * bytes         the script bytes, one after another
+ * strings       see {@link StringPool}
+ * </pre>
+ */
+public class GameSnapshot {
+    private static final int MAGIC = BlockWalker.tag("MBSN");
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 28;
+    private static final int SCRIPT_ENTRY_LENGTH = 60;
+    private static final int TEXT_ENTRY_LENGTH = 12;
+
+    private static final ParseDiagnostics.Reason[] REASONS = ParseDiagnostics.Reason.values();
+
+    private final ByteBuffer snapshot;
+    private final int scriptCount;
+    private final int textCount;
+    private final int scriptsStart;
+    private final int opcodesStart;
+    private final int offsetsStart;
+    private final int lengthsStart;
+    private final int operandIndexStart;
+    private final int operandsStart;
+    private final int textsStart;
+    private final int bytesStart;
+    private final int stringsStart;
+
+    private GameSnapshot(ByteBuffer snapshot) {
+        this.snapshot = snapshot;
+        this.scriptCount = snapshot.getInt(8);
+        int instructionCount = snapshot.getInt(12);
+        int operandCount = snapshot.getInt(16);
+        this.textCount = snapshot.getInt(20);
+        int bytesLength = snapshot.getInt(24);
+
+        this.scriptsStart = HEADER_LENGTH;
+        this.opcodesStart = scriptsStart + scriptCount * SCRIPT_ENTRY_LENGTH;
+        this.offsetsStart = opcodesStart + align(instructionCount);
+        this.lengthsStart = offsetsStart + instructionCount * Integer.BYTES;
+        this.operandIndexStart = lengthsStart + instructionCount * Integer.BYTES;
+        this.operandsStart = operandIndexStart + (instructionCount + 1) * Integer.BYTES;
+        this.textsStart = operandsStart + operandCount * Integer.BYTES;
+        this.bytesStart = textsStart + textCount * TEXT_ENTRY_LENGTH;
+        this.stringsStart = bytesStart + align(bytesLength);
+    }
+
+    /**
+     * Parse the scripts and write their snapshot
+     *
+     * @param scripts     scripts to parse, e.g. {@link ScriptExtractor#extractScripts(ByteBuffer)}
+     * @param parallelism number of worker threads, see {@link ScriptParser#parseAll(List, int)}
+     * @throws IOException
+     */
+    public static void write(File file, List<Script> scripts, ScriptParser parser, int parallelism) throws IOException {
+        List<PackedScript> packed = parser.packAll(scripts, parallelism);
+        List<TextRecord> texts = parser.extractTexts(scripts, parallelism);
+
+        int instructionCount = 0;
+        int operandCount = 0;
+        int bytesLength = 0;
+        for (PackedScript script : packed) {
+            instructionCount += script.size();
+            for (int i = 0; i < script.size(); i++) {
+                operandCount += script.getOperandCount(i);
+            }
+            bytesLength += script.getScript().getBuffer().limit();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(scripts.size())
+                .putInt(instructionCount)
+                .putInt(operandCount)
+                .putInt(texts.size())
+                .putInt(bytesLength);
+
+        ByteBuffer entries = allocate(scripts.size() * SCRIPT_ENTRY_LENGTH);
+        ByteBuffer opcodes = allocate(align(instructionCount));
+        ByteBuffer offsets = allocate(instructionCount * Integer.BYTES);
+        ByteBuffer lengths = allocate(instructionCount * Integer.BYTES);
+        ByteBuffer operandIndex = allocate((instructionCount + 1) * Integer.BYTES);
+        ByteBuffer operands = allocate(operandCount * Integer.BYTES);
+        ByteBuffer textEntries = allocate(texts.size() * TEXT_ENTRY_LENGTH);
+        ByteBuffer bytes = allocate(align(bytesLength));
+        StringPool strings = new StringPool();
+
+        // Texts come in script order, each script takes the texts found at its offset
+        int text = 0;
+        for (PackedScript packedScript : packed) {
+            Script script = packedScript.getScript();
+            int firstText = text;
+            while (text < texts.size() && texts.get(text).getScriptOffset() == script.getOffset()
+                    && texts.get(text).getScriptType().equals(script.getType())) {
+                TextRecord record = texts.get(text++);
+                textEntries.putInt(record.getOpCodeOffset())
+                        .putInt(strings.add(record.getActor()))
+                        .putInt(strings.add(record.getText()));
+            }
+
+            ParseDiagnostics diagnostics = script.getDiagnostics();
+            entries.putInt(BlockWalker.tag(script.getType()))
+                    .putInt(script.getOffset())
+                    .putInt(script.getLength())
+                    .putInt(script.getRoom())
+                    .putInt(script.getParentType() == null ? 0 : BlockWalker.tag(script.getParentType()))
+                    .putInt(script.getParentOffset())
+                    .putInt(diagnostics == null ? -1 : diagnostics.getReason().ordinal())
+                    .putInt(diagnostics == null ? 0 : diagnostics.getOpcode())
+                    .putInt(diagnostics == null ? 0 : diagnostics.getOffset())
+                    .putInt(bytes.position())
+                    .putInt(script.getBuffer().limit())
+                    .putInt(offsets.position() / Integer.BYTES)
+                    .putInt(packedScript.size())
+                    .putInt(firstText)
+                    .putInt(text - firstText);
+
+            for (int i = 0; i < packedScript.size(); i++) {
+                opcodes.put(packedScript.getOpcode(i));
+                offsets.putInt(packedScript.getOffset(i));
+                lengths.putInt(packedScript.getLength(i));
+                operandIndex.putInt(operands.position() / Integer.BYTES);
+                for (int j = 0; j < packedScript.getOperandCount(i); j++) {
+                    operands.putInt(packedScript.getOperand(i, j));
+                }
+            }
+            bytes.put(script.getBuffer());
+        }
+        operandIndex.putInt(operands.position() / Integer.BYTES);
+
+        if (text != texts.size()) {
+            throw new IllegalStateException("Texts are not in script order");
+        }
+
+        TextIndex.writeFile(file, header.rewind(), entries.rewind(), opcodes.rewind(), offsets.rewind(),
+                lengths.rewind(), operandIndex.rewind(), operands.rewind(), textEntries.rewind(), bytes.rewind(),
+                strings.toBuffer());
+    }
+
+    /**
+     * Map a snapshot, nothing is read until asked for
+     *
+     * @throws IOException if the file is no snapshot or has another version
+     */
+    public static GameSnapshot open(File file) throws IOException {
+        ByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (snapshot.limit() < HEADER_LENGTH || snapshot.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        if (snapshot.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + snapshot.getInt(4) + ": " + file);
+        }
+        return new GameSnapshot(snapshot);
+    }
+
+    public int getScriptCount() {
+        return scriptCount;
+    }
+
+    public int getTextCount() {
+        return textCount;
+    }
+
+    /**
+     * @param i script number in file order
+     * @return the script as a view into the snapshot, with its diagnostics but without parsed opcodes
+     */
+    public Script getScript(int i) {
+        int entry = scriptEntry(i);
+        String type = BlockWalker.tagName(snapshot.getInt(entry));
+        int offset = snapshot.getInt(entry + 4);
+        int length = snapshot.getInt(entry + 8);
+        ByteBuffer bytes = snapshot.slice(bytesStart + snapshot.getInt(entry + 36), snapshot.getInt(entry + 40));
+
+        Script script = new Script(type, offset, length, bytes);
+        script.setRoom(snapshot.getInt(entry + 12));
+        int parentTag = snapshot.getInt(entry + 16);
+        script.setParentType(parentTag == 0 ? null : BlockWalker.tagName(parentTag));
+        script.setParentOffset(snapshot.getInt(entry + 20));
+
+        int reason = snapshot.getInt(entry + 24);
+        if (reason >= 0) {
+            script.setDiagnostics(new ParseDiagnostics(REASONS[reason], (byte) snapshot.getInt(entry + 28),
+                    snapshot.getInt(entry + 32), type, offset));
+        }
+        return script;
+    }
+
+    /**
+     * @param i script number in file order
+     * @return the instructions of the script, as {@link ScriptParser#pack(Script)} returned them
+     */
+    public PackedScript getPackedScript(int i) {
+        int entry = scriptEntry(i);
+        int first = snapshot.getInt(entry + 44);
+        int size = snapshot.getInt(entry + 48);
+
+        byte[] opcodes = new byte[size];
+        int[] offsets = new int[size];
+        int[] lengths = new int[size];
+        int[] operandStarts = new int[size + 1];
+        snapshot.get(opcodesStart + first, opcodes);
+        snapshot.slice(offsetsStart + first * Integer.BYTES, size * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(offsets);
+        snapshot.slice(lengthsStart + first * Integer.BYTES, size * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(lengths);
+
+        int firstOperand = snapshot.getInt(operandIndexStart + first * Integer.BYTES);
+        for (int j = 0; j <= size; j++) {
+            operandStarts[j] = snapshot.getInt(operandIndexStart + (first + j) * Integer.BYTES) - firstOperand;
+        }
+        int[] operands = new int[operandStarts[size]];
+        snapshot.slice(operandsStart + firstOperand * Integer.BYTES, operands.length * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(operands);
+
+        return new PackedScript(getScript(i), opcodes, offsets, lengths, operandStarts, operands);
+    }
+
+    /**
+     * @param i script number in file order
+     * @return the texts of the script, as {@link ScriptParser#extractTexts(Script)} returned them
+     */
+    public List<TextRecord> getTexts(int i) {
+        int entry = scriptEntry(i);
+        String type = BlockWalker.tagName(snapshot.getInt(entry));
+        int offset = snapshot.getInt(entry + 4);
+        int first = snapshot.getInt(entry + 52);
+        int count = snapshot.getInt(entry + 56);
+
+        List<TextRecord> texts = new ArrayList<>(count);
+        for (int t = first; t < first + count; t++) {
+            int text = textsStart + t * TEXT_ENTRY_LENGTH;
+            texts.add(new TextRecord(type, offset, snapshot.getInt(text),
+                    StringPool.read(snapshot, stringsStart, snapshot.getInt(text + 4)),
+                    StringPool.read(snapshot, stringsStart, snapshot.getInt(text + 8))));
+        }
+        return texts;
+    }
+
+    private int scriptEntry(int i) {
+        if (i < 0 || i >= scriptCount) {
+            throw new IndexOutOfBoundsException("Script " + i + " of " + scriptCount);
+        }
+        return scriptsStart + i * SCRIPT_ENTRY_LENGTH;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+}
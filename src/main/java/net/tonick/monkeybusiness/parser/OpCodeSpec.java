@@ -0,0 +1,236 @@
+package net.tonick.monkeybusiness.parser;
+
+import net.tonick.monkeybusiness.opcodes.OpCode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static net.tonick.monkeybusiness.parser.OpCodeParser.PARAM_1;
+import static net.tonick.monkeybusiness.parser.OpCodeParser.PARAM_2;
+import static net.tonick.monkeybusiness.parser.OpCodeParser.PARAM_3;
+
+/**
+ * Declarative opcode table, see {@code /opcodes/scumm5.spec} for the format.
+ * <p>
+ * Every line names a base opcode, the parameter bits its variants are made of, the {@link OpCode} class and the
+ * operands. Opcodes that only consist of operands are decoded by a table driven {@link OpCodeParser}, which
+ * interprets the operand list of its line, everything else refers to a hand written parser. {@link #buildTable(Map)} expands all variants into a 256 entry array
+ * indexed by the unsigned opcode.
+ */
+public final class OpCodeSpec {
+    public static final String DEFAULT_RESOURCE = "/opcodes/scumm5.spec";
+
+    private static final String OPCODE_PACKAGE = OpCode.class.getPackageName() + ".";
+
+    private static final String CUSTOM = "custom";
+    private static final String UNSUPPORTED = "unsupported";
+
+    // Operand program instructions
+    private static final byte BYTE_1 = 1;
+    private static final byte BYTE_2 = 2;
+    private static final byte BYTE_3 = 3;
+    private static final byte WORD_1 = 4;
+    private static final byte WORD_2 = 5;
+    private static final byte WORD_3 = 6;
+    private static final byte RESULT = 7;
+    private static final byte VAR = 8;
+    private static final byte TARGET = 9;
+    private static final byte VARARG = 10;
+    private static final byte U8 = 11;
+    private static final byte U16 = 12;
+    private static final byte U24 = 13;
+    private static final byte SKIP_TEXT = 14;
+
+    private static final List<String> OPERANDS = List.of("", "byte1", "byte2", "byte3", "word1", "word2", "word3",
+            "result", "var", "target", "vararg", "u8", "u16", "u24", "skiptext");
+
+    private final List<Entry> entries;
+
+    private OpCodeSpec(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    public static OpCodeSpec fromResource(String resource) {
+        try (InputStream in = OpCodeSpec.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Opcode spec not found: " + resource);
+            }
+            return parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines().toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static OpCodeSpec parse(List<String> lines) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] columns = line.split("\\s+");
+            if (columns.length < 3) {
+                throw new IllegalArgumentException("Opcode spec line " + (i + 1) + ": expected <opcode> <parameter bits> <class>");
+            }
+
+            Entry entry = new Entry();
+            entry.opcode = Integer.parseInt(columns[0], 16);
+            entry.params = columns[1].equals("-") ? 0 : Integer.parseInt(columns[1], 16);
+            entry.name = columns[2];
+            entry.kind = columns.length > 3 && (columns[3].equals(CUSTOM) || columns[3].equals(UNSUPPORTED)) ? columns[3] : null;
+
+            if (entry.opcode > 0xFF || (entry.params & ~0xE0) != 0 || (entry.opcode & entry.params) != 0) {
+                throw new IllegalArgumentException("Opcode spec line " + (i + 1) + ": invalid opcode or parameter bits");
+            }
+
+            entry.operands = new byte[entry.kind == null ? columns.length - 3 : 0];
+            for (int j = 0; j < entry.operands.length; j++) {
+                int operand = OPERANDS.indexOf(columns[j + 3]);
+                if (operand <= 0) {
+                    throw new IllegalArgumentException("Opcode spec line " + (i + 1) + ": unknown operand " + columns[j + 3]);
+                }
+                entry.operands[j] = (byte) operand;
+            }
+            entries.add(entry);
+        }
+        return new OpCodeSpec(entries);
+    }
+
+    /**
+     * Expand the spec into a dispatch table
+     *
+     * @param custom hand written parsers by opcode class name, for the entries marked {@code custom}
+     * @return 256 entries indexed by the unsigned opcode, null for unknown opcodes
+     */
+    public OpCodeParser<?>[] buildTable(Map<String, OpCodeParser<?>> custom) {
+        OpCodeParser<?>[] table = new OpCodeParser<?>[256];
+
+        for (Entry entry : entries) {
+            OpCodeParser<?> parser;
+            if (CUSTOM.equals(entry.kind)) {
+                parser = custom.get(entry.name);
+                if (parser == null) {
+                    throw new IllegalArgumentException("No parser for custom opcode " + entry.name);
+                }
+            } else {
+                parser = new TableParser(entry.name, UNSUPPORTED.equals(entry.kind) ? null : entry.operands, factory(entry.name));
+            }
+
+            for (int variant : variants(entry.opcode, entry.params)) {
+                if (table[variant] != null) {
+                    throw new IllegalArgumentException(String.format("Opcode %02X is defined twice", variant));
+                }
+                table[variant] = parser;
+            }
+        }
+
+        return table;
+    }
+
+    private static int[] variants(int opcode, int params) {
+        int[] variants = {opcode};
+        for (int bit : new int[]{PARAM_1 & 0xFF, PARAM_2 & 0xFF, PARAM_3 & 0xFF}) {
+            if ((params & bit) != 0) {
+                int[] expanded = Arrays.copyOf(variants, variants.length * 2);
+                for (int i = 0; i < variants.length; i++) {
+                    expanded[variants.length + i] = variants[i] | bit;
+                }
+                variants = expanded;
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * Bind the no-argument constructor of the opcode class to a {@link Supplier} once, so creating an opcode is a
+     * plain constructor call instead of a reflective one
+     */
+    @SuppressWarnings("unchecked")
+    private static Supplier<OpCode> factory(String name) {
+        try {
+            Class<? extends OpCode> type = Class.forName(OPCODE_PACKAGE + name).asSubclass(OpCode.class);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), constructor, MethodType.methodType(type));
+            return (Supplier<OpCode>) site.getTarget().invoke();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("No opcode class " + name, e);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't bind the constructor of " + name, e);
+        }
+    }
+
+    private static final class Entry {
+        private int opcode;
+        private int params;
+        private String name;
+        private String kind;
+        private byte[] operands;
+    }
+
+    /**
+     * Decodes an opcode by running its operand program, one parser instance for all table driven opcodes
+     */
+    private static final class TableParser extends OpCodeParser<OpCode> {
+        private final String name;
+        private final byte[] operands;
+        private final Supplier<OpCode> factory;
+
+        private TableParser(String name, byte[] operands, Supplier<OpCode> factory) {
+            this.name = name;
+            this.operands = operands;
+            this.factory = factory;
+        }
+
+        @Override
+        public String getName() {
+            return name + "Parser";
+        }
+
+        @Override
+        public OpCode parse(ParseContext ctx) {
+            if (operands == null) {
+                ctx.fail(ParseDiagnostics.Reason.NOT_IMPLEMENTED);
+                return null;
+            }
+
+            for (byte operand : operands) {
+                switch (operand) {
+                    case BYTE_1 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case BYTE_2 -> ctx.getVarOrDirectByte(PARAM_2);
+                    case BYTE_3 -> ctx.getVarOrDirectByte(PARAM_3);
+                    case WORD_1 -> ctx.getVarOrDirectWord(PARAM_1);
+                    case WORD_2 -> ctx.getVarOrDirectWord(PARAM_2);
+                    case WORD_3 -> ctx.getVarOrDirectWord(PARAM_3);
+                    case RESULT -> ctx.getResultPos();
+                    case VAR -> ctx.getVar();
+                    case TARGET -> ctx.readTarget();
+                    case VARARG -> ctx.getWordVararg();
+                    case U8 -> ctx.readValue8();
+                    case U16 -> ctx.readValue16();
+                    case U24 -> ctx.readValue24();
+                    case SKIP_TEXT -> ctx.skipText();
+                    default -> throw new IllegalStateException("Unknown operand " + operand);
+                }
+            }
+
+            return ctx.create(factory);
+        }
+    }
+}
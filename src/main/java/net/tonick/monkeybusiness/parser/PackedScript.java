@@ -0,0 +1,142 @@
+package net.tonick.monkeybusiness.parser;
+
+import net.tonick.monkeybusiness.opcodes.OpCode;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact form of a parsed script: the instructions are kept in primitive arrays instead of one {@link OpCode}
+ * object per instruction.
+ * <p>
+ * Instruction {@code i} has the opcode byte {@code getOpcode(i)}, starts at {@code getOffset(i)} relative to the
+ * script and is {@code getLength(i)} bytes long. Its operands, as read by the {@link ParseContext} helpers, are
+ * {@code getOperand(i, 0)} to {@code getOperand(i, getOperandCount(i) - 1)}; variables are kept as their variable
+ * number. The script bytes are not copied, {@link #getOpCode(int, ScriptParser)} decodes a single instruction again
+ * when the full object is needed.
+ */
+public class PackedScript {
+    private final Script script;
+    private final byte[] opcodes;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] operandStarts;
+    private final int[] operands;
+
+    PackedScript(Script script, byte[] opcodes, int[] offsets, int[] lengths, int[] operandStarts, int[] operands) {
+        this.script = script;
+        this.opcodes = opcodes;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.operandStarts = operandStarts;
+        this.operands = operands;
+    }
+
+    /**
+     * @return the script this was packed from, without parsed opcodes
+     */
+    public Script getScript() {
+        return script;
+    }
+
+    /**
+     * @return number of instructions
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    public byte getOpcode(int index) {
+        return opcodes[index];
+    }
+
+    /**
+     * @return offset of the instruction relative to the start of its script
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getOperandCount(int index) {
+        return operandStarts[index + 1] - operandStarts[index];
+    }
+
+    public int getOperand(int index, int operand) {
+        if (operand < 0 || operand >= getOperandCount(index)) {
+            throw new IndexOutOfBoundsException("Operand " + operand + " of instruction " + index);
+        }
+        return operands[operandStarts[index] + operand];
+    }
+
+    /**
+     * Decode a single instruction into its {@link OpCode}
+     *
+     * @param parser parser the script was packed with
+     */
+    public OpCode getOpCode(int index, ScriptParser parser) {
+        ParseContext ctx = new ParseContext(script.getBuffer());
+        ctx.buffer.position(offsets[index] + 1);
+        return parser.getParser(opcodes[index]).run(opcodes[index], ctx);
+    }
+
+    /**
+     * @return approximate heap size of the instruction arrays in bytes
+     */
+    public long getPackedSize() {
+        return opcodes.length + 4L * (offsets.length + lengths.length + operandStarts.length + operands.length);
+    }
+
+    @Override
+    public String toString() {
+        return "PackedScript{" +
+                "script=" + script +
+                ", instructions=" + opcodes.length +
+                ", operands=" + operands.length +
+                '}';
+    }
+
+    /**
+     * Collects the instructions while a script is decoded
+     */
+    static class Builder {
+        private final Script script;
+        private final ParseContext ctx;
+        private byte[] opcodes = new byte[32];
+        private int[] offsets = new int[32];
+        private int[] lengths = new int[32];
+        private int[] operandStarts = new int[33];
+        private int size;
+
+        Builder(Script script, ParseContext ctx) {
+            this.script = script;
+            this.ctx = ctx;
+        }
+
+        void add(byte opcode, int offset, int length) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                operandStarts = Arrays.copyOf(operandStarts, size * 2 + 1);
+            }
+            opcodes[size] = opcode;
+            offsets[size] = offset;
+            lengths[size] = length;
+            operandStarts[++size] = ctx.operandCount;
+        }
+
+        PackedScript build() {
+            // Operands of an instruction that failed to decode are dropped
+            return new PackedScript(script,
+                    Arrays.copyOf(opcodes, size),
+                    Arrays.copyOf(offsets, size),
+                    Arrays.copyOf(lengths, size),
+                    Arrays.copyOf(operandStarts, size + 1),
+                    Arrays.copyOf(ctx.operands, operandStarts[size]));
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package net.tonick.monkeybusiness.parser;
+
+import net.tonick.monkeybusiness.opcodes.OpCode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parse results of byte-identical scripts, keyed by script type, a 64 bit hash of the script bytes and everything
+ * else the result depends on: the parse budget and the selected opcodes. Full parses and text exports are kept
+ * apart, so both {@link ScriptParser#parse(Script)} and {@link ScriptParser#extractTexts(Script, java.util.function.Consumer)} hit
+ * the cache, e.g. when extracting several editions of the same game.
+ * <p>
+ * A hit is verified against the bytes of the script the entry was created from, so hash collisions never
+ * return a wrong result. Entries hold a heap copy of the script bytes, not a view into the decoded file, so a
+ * cache shared by several files keeps none of them alive. Cached {@link OpCode}s point into that copy and are
+ * shared between all scripts with the same bytes. The cache is bounded to a number of entries and can be shared
+ * between threads and parsers.
+ */
+public class ParseCache {
+    public enum Eviction {
+        LRU,    // drop the least recently used script
+        FIFO    // drop the script cached first
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 16384;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final int maxSize;
+    private final Eviction eviction;
+    private final Map<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ParseCache(int maxSize, Eviction eviction) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.eviction = eviction;
+        this.entries = new LinkedHashMap<>(16, 0.75f, eviction == Eviction.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > ParseCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param texts       true for a text export, false for a full parse
+     * @param parseBudget budget the script is decoded with
+     * @param opcodeMask  selected opcodes, null for all
+     */
+    Key key(Script script, boolean texts, int parseBudget, boolean[] opcodeMask) {
+        return new Key(script.getType(), hash(script.getBuffer()), texts, parseBudget, opcodeMask);
+    }
+
+    /**
+     * Fill the script from the cache
+     *
+     * @return true on a hit, the script then has the cached opcodes and diagnostics
+     */
+    boolean restore(Script script, Key key) {
+        Entry entry = lookup(script, key);
+        if (entry == null) {
+            return false;
+        }
+        script.getOpCodes().addAll(entry.opCodes);
+        return true;
+    }
+
+    /**
+     * Remember the result of a freshly parsed script
+     */
+    void store(Script script, Key key) {
+        // The opcodes are rebound to a copy of the script bytes, so the entry doesn't keep the whole file alive
+        ByteBuffer copy = copy(script.getBuffer());
+        List<OpCode> opCodes = List.copyOf(script.getOpCodes());
+        for (OpCode opCode : opCodes) {
+            opCode.setSource(copy, opCode.getOffset(), opCode.getLength());
+        }
+        put(key, new Entry(copy, opCodes, null, script.getDiagnostics()));
+    }
+
+    /**
+     * Texts of the script from the cache, the script gets the cached diagnostics
+     *
+     * @return the texts, null on a miss
+     */
+    List<TextRecord> restoreTexts(Script script, Key key) {
+        Entry entry = lookup(script, key);
+        if (entry == null) {
+            return null;
+        }
+        List<TextRecord> texts = new ArrayList<>(entry.texts.size());
+        for (TextRecord text : entry.texts) {
+            texts.add(new TextRecord(script, script.getOffset() + text.getOpCodeOffset(), text.getActor(), text.getText()));
+        }
+        return texts;
+    }
+
+    /**
+     * Remember the texts of a freshly scanned script
+     */
+    void storeTexts(Script script, Key key, List<TextRecord> texts) {
+        // Offsets relative to the script
+        List<TextRecord> relative = new ArrayList<>(texts.size());
+        for (TextRecord text : texts) {
+            relative.add(new TextRecord(text.getScriptType(), 0, text.getOpCodeOffset() - script.getOffset(),
+                    text.getActor(), text.getText()));
+        }
+        put(key, new Entry(copy(script.getBuffer()), null, List.copyOf(relative), script.getDiagnostics()));
+    }
+
+    private static ByteBuffer copy(ByteBuffer bytes) {
+        return ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+    }
+
+    private Entry lookup(Script script, Key key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry == null || !entry.bytes.equals(script.getBuffer())) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        ParseDiagnostics diagnostics = entry.diagnostics;
+        script.setDiagnostics(diagnostics == null ? null : new ParseDiagnostics(diagnostics.getReason(), diagnostics.getOpcode(),
+                diagnostics.getOffset(), script.getType(), script.getOffset()));
+        return entry;
+    }
+
+    private void put(Key key, Entry entry) {
+        synchronized (entries) {
+            entries.putIfAbsent(key, entry);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ParseCache{" +
+                "size=" + size() +
+                ", maxSize=" + maxSize +
+                ", eviction=" + eviction +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    /**
+     * 64 bit hash of the bytes from position to limit, reading 8 bytes at a time
+     */
+    static long hash(ByteBuffer bytes) {
+        int position = bytes.position();
+        int limit = bytes.limit();
+        long hash = PRIME_2 ^ (limit - position);
+
+        int i = position;
+        for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ ((long) LONG_LE.get(bytes, i) * PRIME_1), 31) * PRIME_2;
+        }
+        for (; i < limit; i++) {
+            hash = Long.rotateLeft(hash ^ ((bytes.get(i) & 0xFFL) * PRIME_1), 11) * PRIME_2;
+        }
+
+        // Final avalanche
+        hash ^= hash >>> 33;
+        hash *= PRIME_1;
+        hash ^= hash >>> 29;
+        return hash;
+    }
+
+    static final class Key {
+        private final String type;
+        private final long hash;
+        private final boolean texts;
+        private final int parseBudget;
+        // Selected opcodes as 256 bits, null for all
+        private final long[] opcodes;
+
+        private Key(String type, long hash, boolean texts, int parseBudget, boolean[] opcodeMask) {
+            this.type = type;
+            this.hash = hash;
+            this.texts = texts;
+            this.parseBudget = parseBudget;
+            if (opcodeMask == null) {
+                this.opcodes = null;
+            } else {
+                this.opcodes = new long[opcodeMask.length / Long.SIZE];
+                for (int i = 0; i < opcodeMask.length; i++) {
+                    if (opcodeMask[i]) {
+                        opcodes[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && hash == key.hash && texts == key.texts && parseBudget == key.parseBudget
+                    && Objects.equals(type, key.type) && Arrays.equals(opcodes, key.opcodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Long.hashCode(hash), type, texts, parseBudget, Arrays.hashCode(opcodes));
+        }
+    }
+
+    private static final class Entry {
+        private final ByteBuffer bytes;
+        private final List<OpCode> opCodes;
+        private final List<TextRecord> texts;
+        private final ParseDiagnostics diagnostics;
+
+        private Entry(ByteBuffer bytes, List<OpCode> opCodes, List<TextRecord> texts, ParseDiagnostics diagnostics) {
+            this.bytes = bytes;
+            this.opCodes = opCodes;
+            this.texts = texts;
+            this.diagnostics = diagnostics;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package net.tonick.monkeybusiness.parser;
+
+import net.tonick.monkeybusiness.opcodes.OpCode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static net.tonick.monkeybusiness.parser.OpCodeParser.PARAM_1;
+
+/**
+ * Decoding state of a single script: the script buffer and the opcode currently being decoded.
+ * <p>
+ * A fresh context is created for every {@link ScriptParser#parse(Script)} call, so the {@link OpCodeParser}s
+ * themselves are stateless and can be shared between threads.
+ */
+public class ParseContext {
+    private static final VarHandle SHORT_LE = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    final ByteBuffer buffer;
+    byte opcode;
+    boolean materialize = true;
+
+    // Selected opcodes by unsigned opcode, null for all; other instructions are only skipped over
+    boolean[] opcodeMask;
+
+    // First error, decoding stops once it is set
+    ParseDiagnostics.Reason error;
+
+    // Operand values in decoding order, only kept when packing scripts
+    int[] operands;
+    int operandCount;
+
+    public ParseContext(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public void setOpcode(byte opcode) {
+        this.opcode = opcode;
+    }
+
+    /**
+     * Create the parse result. When only skipping over instructions nothing is allocated and null is returned.
+     */
+    public final <C extends OpCode> C create(Supplier<C> factory) {
+        return materialize ? factory.get() : null;
+    }
+
+    /**
+     * Stop decoding. All further reads return 0xFF or 0, so parsers simply run to their end.
+     */
+    public final void fail(ParseDiagnostics.Reason reason) {
+        if (error == null) {
+            error = reason;
+        }
+        buffer.position(buffer.limit());
+    }
+
+    public final boolean hasError() {
+        return error != null;
+    }
+
+    /**
+     * Check that the next bytes are part of the script, fails with {@link ParseDiagnostics.Reason#TRUNCATED} otherwise
+     */
+    private boolean available(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        fail(ParseDiagnostics.Reason.TRUNCATED);
+        return false;
+    }
+
+    /**
+     * Keep the operands read through the helpers, see {@link PackedScript}
+     */
+    final void recordOperands() {
+        operands = new int[64];
+    }
+
+    private int record(int value) {
+        if (operands != null) {
+            if (operandCount == operands.length) {
+                operands = Arrays.copyOf(operands, operandCount * 2);
+            }
+            operands[operandCount++] = value;
+        }
+        return value;
+    }
+
+    public final byte readValue8() {
+        if (!available(1)) {
+            return (byte) 0xFF;
+        }
+        return (byte) record(buffer.get());
+    }
+
+    public final int readValue16() {
+        if (!available(2)) {
+            return 0;
+        }
+        return record(readShortLE());
+    }
+
+    /**
+     * Script operands are little-endian, independent of the buffer's byte order. Reads through a VarHandle,
+     * so the shared buffer is never switched to another order.
+     */
+    private short readShortLE() {
+        int position = buffer.position();
+        short value = (short) SHORT_LE.get(buffer, position);
+        buffer.position(position + 2);
+        return value;
+    }
+
+    public final int getVarOrDirectByte(byte mask) {
+        if ((opcode & mask) != 0) {
+            return getVar();
+        }
+        if (!available(1)) {
+            return 0;
+        }
+        return record(buffer.get());
+    }
+
+    public final int getVarOrDirectWord(byte mask) {
+        if ((opcode & mask) != 0) {
+            return getVar();
+        }
+        return record(fetchScriptWord());
+    }
+
+    /**
+     * Read the message at the current position in a single pass, see {@link TextDecoder#decode(ByteBuffer)}
+     */
+    public final String readText() {
+        String text = TextDecoder.decode(buffer);
+        if (text == null) {
+            fail(ParseDiagnostics.Reason.TRUNCATED);
+        }
+        return text;
+    }
+
+    /**
+     * Skip the message at the current position and its terminating 0x00 without decoding it
+     */
+    public final void skipText() {
+        if (!TextDecoder.skip(buffer)) {
+            fail(ParseDiagnostics.Reason.TRUNCATED);
+        }
+    }
+
+    public final short fetchScriptWord() {
+        if (!available(2)) {
+            return 0;
+        }
+        return readShortLE();
+    }
+
+    public final int getVar() {
+        short aShort = fetchScriptWord();
+        // The variable number is kept, not its (unknown) value
+        record(aShort);
+        return readVar(aShort);
+    }
+
+    public final int readVar(short var) {
+        short a = 0;
+        if ((var & 0x2000) != 0) {
+            a = fetchScriptWord();
+            if ((a & 0x2000) != 0) {
+                a += readVar((short) (a & ~0x2000));
+            }
+        }
+        return a;
+    }
+
+    public final int readTarget() {
+        return record(fetchScriptWord());
+    }
+
+    public final long readValue24() {
+        if (!available(3)) {
+            return 0;
+        }
+        int position = buffer.position();
+        buffer.position(position + 3);
+        return (buffer.get(position) & 0xFF) | (buffer.get(position + 1) & 0xFF) << 8 | (buffer.get(position + 2) & 0xFF) << 16;
+    }
+
+    /**
+     * @return number of the variable the result is stored in, an indexed variable (0x2000) is followed by its index
+     */
+    public final int getResultPos() {
+        if (!available(2)) {
+            return 0;
+        }
+        short var = readShortLE();
+        if ((var & 0x2000) != 0 && available(2)) {
+            readShortLE();
+        }
+        return record(var);
+    }
+
+    /**
+     * @return number of values in the list
+     */
+    public final int getWordVararg() {
+        int count = 0;
+
+        byte aux;
+
+        do {
+            aux = available(1) ? buffer.get() : (byte) 0xFF;
+            if (aux != (byte) 0xFF) {
+                getVarOrDirectWord(PARAM_1);
+                count++;
+            }
+        } while (aux != (byte) 0xFF);
+
+        return count;
+    }
+}
@@ -0,0 +1,80 @@
+package net.tonick.monkeybusiness.parser;
+
+/**
+ * Why and where decoding of a script stopped
+ */
+public class ParseDiagnostics {
+    public enum Reason {
+        UNKNOWN_OPCODE,
+        NOT_IMPLEMENTED,
+        TRUNCATED,          // an operand or text runs past the end of the script
+        BUDGET_EXCEEDED     // more instructions than the parser's budget allows
+    }
+
+    private final Reason reason;
+    private final byte opcode;
+    private final int offset;
+    private final String scriptType;
+    private final int scriptOffset;
+
+    public ParseDiagnostics(Reason reason, byte opcode, int offset, String scriptType, int scriptOffset) {
+        this.reason = reason;
+        this.opcode = opcode;
+        this.offset = offset;
+        this.scriptType = scriptType;
+        this.scriptOffset = scriptOffset;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the opcode being decoded when the error occurred
+     */
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return offset of the first bad instruction relative to the start of the script
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return absolute offset of the first bad instruction in the file
+     */
+    public int getAbsoluteOffset() {
+        return scriptOffset + offset;
+    }
+
+    public String getScriptType() {
+        return scriptType;
+    }
+
+    public int getScriptOffset() {
+        return scriptOffset;
+    }
+
+    /**
+     * @return the error as an exception, for callers of {@link Script#getParseError()}
+     */
+    public Exception toException() {
+        if (reason == Reason.NOT_IMPLEMENTED) {
+            return new UnsupportedOperationException(toString());
+        }
+        return new IllegalStateException(toString());
+    }
+
+    @Override
+    public String toString() {
+        return "ParseDiagnostics{" +
+                "reason=" + reason +
+                ", opcode=" + String.format("%02X", opcode) +
+                ", offset=" + String.format("%04X", offset) +
+                ", script='" + scriptType + '\'' + " @ " + String.format("%08X", scriptOffset) +
+                '}';
+    }
+}
@@ -3,6 +3,7 @@ package net.tonick.monkeybusiness.parser;
 import net.tonick.monkeybusiness.opcodes.OpCode;
 import net.tonick.monkeybusiness.opcodes.StopObjectCode;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,26 +14,55 @@ public class Script {
     private String type;
     private int offset;
     private int length;
-    private byte[] originalBytes;
+    private int room = -1;
+    private String parentType;
+    private int parentOffset = -1;
+    private ByteBuffer bytes;
     private Exception parseError;
+    private ParseDiagnostics diagnostics;
     private List<OpCode> opCodes = new ArrayList<>();
 
     public Script(String type, int offset, int length, byte[] originalBytes) {
+        this(type, offset, length, ByteBuffer.wrap(originalBytes));
+    }
+
+    /**
+     * @param bytes view of the script's bytes, index 0 being the start of the block header. Not copied.
+     */
+    public Script(String type, int offset, int length, ByteBuffer bytes) {
         this.type = type;
         this.offset = offset;
         this.length = length;
-        this.originalBytes = originalBytes;
+        this.bytes = bytes;
     }
 
     public Script() {
     }
 
+    /**
+     * @return a copy of the script's bytes, null if it has none
+     */
     public byte[] getOriginalBytes() {
-        return originalBytes;
+        if (bytes == null) {
+            return null;
+        }
+        byte[] copy = new byte[bytes.limit()];
+        bytes.get(0, copy);
+        return copy;
     }
 
     public void setOriginalBytes(byte[] originalBytes) {
-        this.originalBytes = originalBytes;
+        this.bytes = originalBytes == null ? null : ByteBuffer.wrap(originalBytes);
+    }
+
+    /**
+     * @return a view of the script's bytes with its own position, starting at 0; empty if it has none
+     */
+    public ByteBuffer getBuffer() {
+        if (bytes == null) {
+            return ByteBuffer.allocate(0);
+        }
+        return bytes.slice(0, bytes.limit());
     }
 
     public String getType() {
@@ -59,6 +89,36 @@ public class Script {
         this.length = length;
     }
 
+    /**
+     * @return number of the room this script belongs to, -1 if unknown
+     */
+    public int getRoom() {
+        return room;
+    }
+
+    public void setRoom(int room) {
+        this.room = room;
+    }
+
+    /**
+     * @return type of the enclosing block (e.g. "LFLF", "ROOM" or "OBCD"), null if unknown
+     */
+    public String getParentType() {
+        return parentType;
+    }
+
+    public void setParentType(String parentType) {
+        this.parentType = parentType;
+    }
+
+    public int getParentOffset() {
+        return parentOffset;
+    }
+
+    public void setParentOffset(int parentOffset) {
+        this.parentOffset = parentOffset;
+    }
+
     public List<OpCode> getOpCodes() {
         return opCodes;
     }
@@ -81,21 +141,40 @@ public class Script {
                 "type='" + type + '\'' +
                 ", offset=" + offset + " (" + String.format("%08X", offset) + ")" +
                 ", length=" + length + " (" + String.format("%08X", length) + ")" +
+                ", room=" + room +
                 '}';
     }
 
+    /**
+     * @return the parse error, created from the {@link #getDiagnostics() diagnostics} on first access
+     */
     public Exception getParseError() {
+        if (parseError == null && diagnostics != null) {
+            parseError = diagnostics.toException();
+        }
         return parseError;
     }
 
     public boolean hasParseError() {
-        return parseError != null;
+        return parseError != null || diagnostics != null;
     }
 
     public void setParseError(Exception parseError) {
         this.parseError = parseError;
     }
 
+    /**
+     * @return why and where decoding stopped, null if the script was decoded completely
+     */
+    public ParseDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    public void setDiagnostics(ParseDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        this.parseError = null;
+    }
+
     public void add(OpCode opCode) {
         opCodes.add(opCode);
     }
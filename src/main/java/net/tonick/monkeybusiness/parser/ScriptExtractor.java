@@ -1,18 +1,22 @@
 package net.tonick.monkeybusiness.parser;
 
-import net.tonick.monkeybusiness.util.KnuthMorrisPratt;
+import net.tonick.monkeybusiness.util.AhoCorasick;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class ScriptExtractor {
     // Resource types
@@ -22,51 +26,307 @@ public class ScriptExtractor {
     public static final String ENCD = "ENCD"; // enter scene script
     public static final String OBCD = "VERB"; // enter scene script
     public static final int SCRIPT_TAG_LENGTH = 4;
+    private static final List<String> SCRIPT_TYPES = List.of(SCRP, LSCR, EXCD, ENCD, OBCD);
+    private static final int[] SCRIPT_TAGS = SCRIPT_TYPES.stream().mapToInt(BlockWalker::tag).toArray();
+    private static final AhoCorasick SCRIPT_TAG_MATCHER = new AhoCorasick(SCRIPT_TYPES.stream()
+            .map(type -> type.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new));
+    public static final int MAX_ROOMS = 256;
 
+    // Scumm v5 data files are XOR'ed with this key
+    public static final byte XOR_KEY = 0x69;
+    private static final long XOR_KEY_LONG = 0x6969696969696969L;
 
     public static List<Script> extractScripts(byte[] bytes) {
-        List<Script> scripts = Stream.of(SCRP, LSCR, EXCD, ENCD, OBCD)
-                .map(String::getBytes)
-                .map(scriptType -> extractScript(bytes, scriptType))
+        return extractScripts(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Extract all scripts in file order by walking the block tree
+     *
+     * @param bytes decoded file contents
+     * @return all script blocks
+     */
+    public static List<Script> extractScripts(ByteBuffer bytes) {
+        return extractScripts(bytes, ScriptQuery.all());
+    }
+
+    /**
+     * Extract the selected scripts in file order, containers without selected scripts are skipped
+     *
+     * @param bytes decoded file contents
+     * @param query scripts to extract
+     * @return the selected script blocks
+     */
+    public static List<Script> extractScripts(ByteBuffer bytes, ScriptQuery query) {
+        List<Script> scripts = new ArrayList<>();
+        new BlockWalker(bytes, query, false).forEachRemaining(scripts::add);
+        return scripts;
+    }
+
+    /**
+     * Extract the selected scripts straight from the encoded file. Only the block headers on the way and the
+     * selected scripts are decoded, each script into a buffer of its own, which pays off when a query selects a
+     * small part of the file.
+     *
+     * @param file  input file, see {@link #mapFile(File)}
+     * @param query scripts to extract
+     * @return the selected script blocks in file order
+     * @throws IOException
+     */
+    public static List<Script> extractScripts(File file, ScriptQuery query) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            List<Script> scripts = new ArrayList<>();
+            new BlockWalker(mapped, query, true).forEachRemaining(scripts::add);
+            return scripts;
+        }
+    }
+
+    /**
+     * Lazy variant of {@link #extractScripts(ByteBuffer)}: scripts are yielded while the block tree is walked.
+     * The stream can be made parallel, rooms are then walked concurrently.
+     *
+     * @param bytes decoded file contents
+     * @return all script blocks in file order
+     */
+    public static Stream<Script> streamScripts(ByteBuffer bytes) {
+        return streamScripts(bytes, ScriptQuery.all());
+    }
+
+    /**
+     * Lazy variant of {@link #extractScripts(ByteBuffer, ScriptQuery)}
+     */
+    public static Stream<Script> streamScripts(ByteBuffer bytes, ScriptQuery query) {
+        return StreamSupport.stream(new ScriptSpliterator(new BlockWalker(bytes, query, false)), false);
+    }
+
+    public static List<Script> scanScripts(byte[] bytes) {
+        return scanScripts(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Extract scripts by searching for their tags anywhere in the data.
+     * Slower than {@link #extractScripts(ByteBuffer)} and prone to false positives, but works on fragments
+     * and damaged files that are not a well-formed block tree. Room and parent are unknown.
+     * <p>
+     * All tags are found in a single pass, tags whose length field doesn't fit into the data are dropped. Then
+     * every type skips the tags inside the blocks of that type found before them.
+     *
+     * @param bytes decoded file contents
+     * @return all script blocks, grouped by type
+     */
+    public static List<Script> scanScripts(ByteBuffer bytes) {
+        return scanScripts(bytes, 1);
+    }
+
+    /**
+     * Parallel variant of {@link #scanScripts(ByteBuffer)} in chunks of {@link AhoCorasick#DEFAULT_CHUNK_SIZE}
+     * bytes
+     */
+    public static List<Script> scanScripts(ByteBuffer bytes, int parallelism) {
+        return scanScripts(bytes, parallelism, AhoCorasick.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Scan for script tags in chunks on a dedicated fork-join pool, see
+     * {@link AhoCorasick#findAll(ByteBuffer, int, int)}. Tags whose length field doesn't fit into the data are
+     * dropped, then the tags inside blocks are skipped sequentially. The result is the same as a sequential scan.
+     *
+     * @param parallelism number of worker threads, 1 scans on the calling thread
+     * @param chunkSize   bytes scanned by a single task
+     * @return all script blocks, grouped by type
+     */
+    public static List<Script> scanScripts(ByteBuffer bytes, int parallelism, int chunkSize) {
+        List<AhoCorasick.Match> tags = SCRIPT_TAG_MATCHER.findAll(bytes, parallelism, chunkSize).stream()
+                .filter(tag -> isBlock(bytes, tag.getIndex()))
+                .toList();
+        return mergeTags(bytes, tags);
+    }
+
+    /**
+     * @param tags checked script tags ordered by index
+     */
+    private static List<Script> mergeTags(ByteBuffer bytes, List<AhoCorasick.Match> tags) {
+        List<List<Script>> scriptsByType = new ArrayList<>();
+        int[] nextIndex = new int[SCRIPT_TYPES.size()];
+        SCRIPT_TYPES.forEach(type -> scriptsByType.add(new ArrayList<>()));
+
+        for (AhoCorasick.Match tag : tags) {
+            int type = tag.getPattern();
+            if (tag.getIndex() < nextIndex[type]) {
+                continue;
+            }
+
+            Script script = readScriptAt(bytes, tag.getIndex());
+            scriptsByType.get(type).add(script);
+            nextIndex[type] = tag.getIndex() + script.getLength();
+        }
+
+        return scriptsByType.stream()
                 .flatMap(Collection::stream)
                 .collect(Collectors.toList());
+    }
 
-        return scripts;
+    /**
+     * @return true if the length field of the block at idx covers at least its header and doesn't run past the data
+     */
+    private static boolean isBlock(ByteBuffer bytes, int idx) {
+        if (idx < 0 || idx + BlockWalker.HEADER_LENGTH > bytes.limit()) {
+            return false;
+        }
+        int length = readBlockLength(bytes, idx);
+        return length >= BlockWalker.HEADER_LENGTH && length <= bytes.limit() - idx;
     }
 
-    private static List<Script> extractScript(byte[] bytes, byte[] scriptTag) {
-        List<Script> scripts = new ArrayList<>();
-        int scriptStartIndex = 0;
+    public static Script readScriptAt(byte[] bytes, int idx) {
+        return readScriptAt(ByteBuffer.wrap(bytes), idx);
+    }
+
+    /**
+     * Read the script block at the given absolute index. The script is a view into bytes, nothing is copied.
+     *
+     * @param bytes decoded file contents
+     * @param idx   index of the block tag
+     * @return the script
+     * @throws IllegalArgumentException if the block's length is shorter than its header or runs past the data
+     */
+    public static Script readScriptAt(ByteBuffer bytes, int idx) {
+        if (!isBlock(bytes, idx)) {
+            throw new IllegalArgumentException(String.format("No valid block @ %08X: length %s doesn't fit into %d bytes",
+                    idx, idx >= 0 && idx + BlockWalker.HEADER_LENGTH <= bytes.limit() ? readBlockLength(bytes, idx) : "unknown",
+                    bytes.limit()));
+        }
+        int length = readBlockLength(bytes, idx);
 
-        ByteBuffer buffer = ByteBuffer.wrap(scriptTag);
+        Script script = new Script(scriptType(bytes, idx), idx, length, bytes.slice(idx, length));
+        return script;
+    }
 
-        for (; ; ) {
-            scriptStartIndex = KnuthMorrisPratt.indexOf(bytes, scriptStartIndex, bytes.length, scriptTag);
-            if (scriptStartIndex < 0) {
-                break;
+    private static String scriptType(ByteBuffer bytes, int idx) {
+        int tag = readIntBE(bytes, idx);
+        for (int i = 0; i < SCRIPT_TAGS.length; i++) {
+            if (tag == SCRIPT_TAGS[i]) {
+                return SCRIPT_TYPES.get(i);
             }
+        }
 
-            Script script = readScriptAt(bytes, scriptStartIndex);
-            scripts.add(script);
-            scriptStartIndex += script.getLength();
+        byte[] scriptTag = new byte[SCRIPT_TAG_LENGTH];
+        bytes.get(idx, scriptTag);
+        return new String(scriptTag, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read the global script with the given number, jumping straight to it using the index
+     *
+     * @param bytes  decoded data file contents
+     * @param index  index of the data file
+     * @param script number of the global script
+     * @return the script or null if the index has no such script
+     */
+    public static Script readGlobalScript(ByteBuffer bytes, GameIndex index, int script) {
+        if (!index.hasScript(script)) {
+            return null;
+        }
+
+        int room = index.getScriptRoom(script);
+        int roomOffset = readRoomOffsets(bytes)[room];
+        if (roomOffset < 0) {
+            return null;
+        }
+
+        // An index of another edition usually points past the end of the data
+        int idx = roomOffset + index.getScriptOffset(script);
+        if (idx < 0 || idx > bytes.limit() - BlockWalker.HEADER_LENGTH || readIntBE(bytes, idx) != BlockWalker.tag(SCRP)) {
+            throw new IllegalStateException(String.format("Index does not match data file: no %s for script %d @ %08X", SCRP, script, idx));
         }
 
+        Script result = readScriptAt(bytes, idx);
+        result.setRoom(room);
+        return result;
+    }
+
+    /**
+     * Read all scripts stored inside a room (local, entry, exit and verb scripts) without walking the rest of the file
+     *
+     * @param bytes decoded data file contents
+     * @param room  room number
+     * @return the room's scripts, empty if the room does not exist or its offset doesn't point to a ROOM block
+     */
+    public static List<Script> readRoomScripts(ByteBuffer bytes, int room) {
+        List<Script> scripts = new ArrayList<>();
+        int roomOffset = room >= 0 && room < MAX_ROOMS ? readRoomOffsets(bytes)[room] : -1;
+        if (roomOffset < 0 || roomOffset > bytes.limit() - BlockWalker.HEADER_LENGTH
+                || readIntBE(bytes, roomOffset) != BlockWalker.tag(BlockWalker.ROOM)) {
+            return scripts;
+        }
+        int length = readBlockLength(bytes, roomOffset);
+        if (length < BlockWalker.HEADER_LENGTH || length > bytes.limit() - roomOffset) {
+            return scripts;
+        }
+
+        new BlockWalker(bytes, roomOffset, roomOffset + length).forEachRemaining(script -> {
+            script.setRoom(room);
+            scripts.add(script);
+        });
         return scripts;
     }
 
-    public static Script readScriptAt(byte[] bytes, int idx) {
-        byte[] scriptTag = Arrays.copyOfRange(bytes, idx, idx + SCRIPT_TAG_LENGTH);
-        byte[] lengthBytes = Arrays.copyOfRange(bytes, idx + SCRIPT_TAG_LENGTH, idx + SCRIPT_TAG_LENGTH + Integer.BYTES);
+    /**
+     * Read the room offset table of a data file, found in the LOFF block right after the LECF header
+     *
+     * @param bytes decoded data file contents
+     * @return absolute ROOM block offset by room number, -1 for unknown rooms
+     */
+    public static int[] readRoomOffsets(ByteBuffer bytes) {
+        int loffIdx = BlockWalker.HEADER_LENGTH;
+        if (bytes.limit() < loffIdx + BlockWalker.HEADER_LENGTH + 1
+                || readIntBE(bytes, 0) != BlockWalker.tag(BlockWalker.LECF)
+                || readIntBE(bytes, loffIdx) != BlockWalker.tag(BlockWalker.LOFF)) {
+            int[] none = new int[MAX_ROOMS];
+            Arrays.fill(none, -1);
+            return none;
+        }
+        // Only the LOFF block, as BlockWalker does
+        int length = readBlockLength(bytes, loffIdx);
+        int end = length < BlockWalker.HEADER_LENGTH ? bytes.limit() : (int) Math.min(bytes.limit(), (long) loffIdx + length);
+        return readRoomOffsets(bytes.slice(0, end), loffIdx);
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        buffer.put(lengthBytes);
-        buffer.flip();
-        int length = buffer.getInt();
+    /**
+     * LOFF: 1 byte room count followed by (1 byte room number, 32-bit LE offset of the ROOM block) per room.
+     * Entries beyond the end of the data are ignored.
+     */
+    static int[] readRoomOffsets(ByteBuffer bytes, int loffIdx) {
+        int[] roomOffsets = new int[MAX_ROOMS];
+        Arrays.fill(roomOffsets, -1);
 
-        byte[] scriptBytes = Arrays.copyOfRange(bytes, idx, idx + length);
+        int entry = loffIdx + BlockWalker.HEADER_LENGTH + 1;
+        if (entry > bytes.limit()) {
+            return roomOffsets;
+        }
+        int count = Math.min(bytes.get(entry - 1) & 0xFF, (bytes.limit() - entry) / 5);
+        for (int i = 0; i < count; i++, entry += 5) {
+            int room = bytes.get(entry) & 0xFF;
+            roomOffsets[room] = (bytes.get(entry + 1) & 0xFF)
+                    | (bytes.get(entry + 2) & 0xFF) << 8
+                    | (bytes.get(entry + 3) & 0xFF) << 16
+                    | (bytes.get(entry + 4) & 0xFF) << 24;
+        }
+        return roomOffsets;
+    }
 
-        Script script = new Script(new String(scriptTag), idx, length, scriptBytes);
-        return script;
+    /**
+     * Read the big-endian length field of the block at idx, independent of the buffer's byte order
+     */
+    static int readBlockLength(ByteBuffer bytes, int idx) {
+        return readIntBE(bytes, idx + SCRIPT_TAG_LENGTH);
+    }
+
+    static int readIntBE(ByteBuffer bytes, int idx) {
+        return (bytes.get(idx) & 0xFF) << 24
+                | (bytes.get(idx + 1) & 0xFF) << 16
+                | (bytes.get(idx + 2) & 0xFF) << 8
+                | (bytes.get(idx + 3) & 0xFF);
     }
 
     /**
@@ -78,8 +338,62 @@ public class ScriptExtractor {
      */
     public static byte[] readFile(File file) throws IOException {
         byte[] bytes = Files.readAllBytes(file.toPath());
-        IntStream.range(0, bytes.length).forEach(i -> bytes[i] = (byte) ((short) bytes[i] ^ 0x69));
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] ^= XOR_KEY;
+        }
         return bytes;
     }
 
+    /**
+     * Map and XOR input file without pulling it onto the heap.
+     * <p>
+     * The file is memory mapped and decoded in 8-byte blocks into a direct buffer, which is handed out as a
+     * read-only view. Files are limited to 2 GB by the {@link ByteBuffer} index range.
+     *
+     * @param file input file, currently only Scumm V5 (i.e. "The Secret of Monkey Island CD Version")
+     * @return read-only view of the decoded file
+     * @throws IOException
+     */
+    public static ByteBuffer mapFile(File file) throws IOException {
+        return decode(mapRawFile(file));
+    }
+
+    /**
+     * Map the input file without decoding it, so reading and decoding can run on different threads
+     *
+     * @return read-only mapping of the encoded file, see {@link #decode(ByteBuffer)}
+     * @throws IOException
+     */
+    public static MappedByteBuffer mapRawFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * XOR an encoded file into a direct buffer
+     *
+     * @param encoded file contents, e.g. from {@link #mapRawFile(File)}
+     * @return read-only view of the decoded file
+     */
+    public static ByteBuffer decode(ByteBuffer encoded) {
+        ByteBuffer decoded = ByteBuffer.allocateDirect(encoded.limit());
+        decode(encoded, decoded);
+        return decoded.asReadOnlyBuffer();
+    }
+
+    /**
+     * XOR all bytes of source into target using absolute indices
+     */
+    static void decode(ByteBuffer source, ByteBuffer target) {
+        int length = source.limit();
+        int blocks = length & ~(Long.BYTES - 1);
+        int i = 0;
+        for (; i < blocks; i += Long.BYTES) {
+            target.putLong(i, source.getLong(i) ^ XOR_KEY_LONG);
+        }
+        for (; i < length; i++) {
+            target.put(i, (byte) (source.get(i) ^ XOR_KEY));
+        }
+    }
 }
@@ -6,382 +6,212 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Heavy lifting
+ * <p>
+ * The opcode table is read from {@link OpCodeSpec#DEFAULT_RESOURCE}, only opcodes with sub-opcodes or texts
+ * have hand written parsers below.
+ * <p>
+ * A parser can be shared between threads once its budget and cache are configured.
  */
 public class ScriptParser {
     private static final Logger logger = LogManager.getLogger(ScriptParser.class);
 
-    public final Map<Byte, OpCodeParser> opCodeLookup = new HashMap<>();
+    public static final int DEFAULT_PARSE_BUDGET = 65536;
 
-    public ScriptParser() {
-        // Collapsible Region for OpCodes
-        {
-            opCodeLookup.put((byte) 0x00, new StopObjectCodeParser());
-            opCodeLookup.put((byte) 0xA0, new StopObjectCodeParser());
-
-            opCodeLookup.put((byte) 0x01, new PutActorParser());
-            opCodeLookup.put((byte) 0x21, new PutActorParser());
-            opCodeLookup.put((byte) 0x41, new PutActorParser());
-            opCodeLookup.put((byte) 0x61, new PutActorParser());
-            opCodeLookup.put((byte) 0x81, new PutActorParser());
-            opCodeLookup.put((byte) 0xA1, new PutActorParser());
-            opCodeLookup.put((byte) 0xC1, new PutActorParser());
-            opCodeLookup.put((byte) 0xE1, new PutActorParser());
-
-            opCodeLookup.put((byte) 0x02, new StartMusicParser());
-            opCodeLookup.put((byte) 0x82, new StartMusicParser());
-
-            opCodeLookup.put((byte) 0x03, new GetActorRoomParser());
-            opCodeLookup.put((byte) 0x83, new GetActorRoomParser());
-
-            opCodeLookup.put((byte) 0x04, new IsGreaterEqualParser());
-            opCodeLookup.put((byte) 0x84, new IsGreaterEqualParser());
-
-            opCodeLookup.put((byte) 0x05, new DrawObjectParser());
-            opCodeLookup.put((byte) 0x85, new DrawObjectParser());
-
-            opCodeLookup.put((byte) 0x06, new GetActorElevationParser());
-            opCodeLookup.put((byte) 0x86, new GetActorElevationParser());
-
-            opCodeLookup.put((byte) 0x07, new SetStateParser());
-            opCodeLookup.put((byte) 0x47, new SetStateParser());
-            opCodeLookup.put((byte) 0x87, new SetStateParser());
-            opCodeLookup.put((byte) 0xC7, new SetStateParser());
-
-            opCodeLookup.put((byte) 0x08, new IsNotEqualParser());
-            opCodeLookup.put((byte) 0x88, new IsNotEqualParser());
-
-            opCodeLookup.put((byte) 0x09, new FaceActorParser());
-            opCodeLookup.put((byte) 0x49, new FaceActorParser());
-            opCodeLookup.put((byte) 0x89, new FaceActorParser());
-            opCodeLookup.put((byte) 0xC9, new FaceActorParser());
-
-            opCodeLookup.put((byte) 0x0A, new StartScriptParser());
-            opCodeLookup.put((byte) 0x2A, new StartScriptParser());
-            opCodeLookup.put((byte) 0x4A, new StartScriptParser());
-            opCodeLookup.put((byte) 0x6A, new StartScriptParser());
-            opCodeLookup.put((byte) 0x8A, new StartScriptParser());
-            opCodeLookup.put((byte) 0xAA, new StartScriptParser());
-            opCodeLookup.put((byte) 0xCA, new StartScriptParser());
-            opCodeLookup.put((byte) 0xEA, new StartScriptParser());
-
-            opCodeLookup.put((byte) 0x0B, new GetVerbEntryPointParser());
-            opCodeLookup.put((byte) 0x4B, new GetVerbEntryPointParser());
-            opCodeLookup.put((byte) 0x8B, new GetVerbEntryPointParser());
-            opCodeLookup.put((byte) 0xCB, new GetVerbEntryPointParser());
-
-            opCodeLookup.put((byte) 0x0C, new ResourceRoutinesParser());
-            opCodeLookup.put((byte) 0x8C, new ResourceRoutinesParser());
-
-            opCodeLookup.put((byte) 0x0D, new WalkActorToActorParser());
-            opCodeLookup.put((byte) 0x4D, new WalkActorToActorParser());
-            opCodeLookup.put((byte) 0x8D, new WalkActorToActorParser());
-            opCodeLookup.put((byte) 0xCD, new WalkActorToActorParser());
-
-            opCodeLookup.put((byte) 0x0E, new PutActorAtObjectParser());
-            opCodeLookup.put((byte) 0x4E, new PutActorAtObjectParser());
-            opCodeLookup.put((byte) 0x8E, new PutActorAtObjectParser());
-            opCodeLookup.put((byte) 0xCE, new PutActorAtObjectParser());
-
-            opCodeLookup.put((byte) 0x0F, new GetObjectStateParser());
-            opCodeLookup.put((byte) 0x8F, new GetObjectStateParser());
-
-            opCodeLookup.put((byte) 0x10, new GetObjectOwnerParser());
-            opCodeLookup.put((byte) 0x90, new GetObjectOwnerParser());
-
-            opCodeLookup.put((byte) 0x11, new AnimateActorParser());
-            opCodeLookup.put((byte) 0x51, new AnimateActorParser());
-            opCodeLookup.put((byte) 0x91, new AnimateActorParser());
-            opCodeLookup.put((byte) 0xD1, new AnimateActorParser());
-
-            opCodeLookup.put((byte) 0x12, new PanCameraToParser());
-            opCodeLookup.put((byte) 0x92, new PanCameraToParser());
-
-            opCodeLookup.put((byte) 0x13, new ActorOpsParser());
-            opCodeLookup.put((byte) 0x53, new ActorOpsParser());
-            opCodeLookup.put((byte) 0x93, new ActorOpsParser());
-            opCodeLookup.put((byte) 0xD3, new ActorOpsParser());
-
-            opCodeLookup.put((byte) 0x14, new PrintParser());
-            opCodeLookup.put((byte) 0x94, new PrintParser());
-
-            opCodeLookup.put((byte) 0x15, new ActorFromPosParser());
-            opCodeLookup.put((byte) 0x55, new ActorFromPosParser());
-            opCodeLookup.put((byte) 0x95, new ActorFromPosParser());
-            opCodeLookup.put((byte) 0xD5, new ActorFromPosParser());
-
-            opCodeLookup.put((byte) 0x16, new GetRandomNumberParser());
-            opCodeLookup.put((byte) 0x96, new GetRandomNumberParser());
-
-            opCodeLookup.put((byte) 0x17, new AndParser());
-            opCodeLookup.put((byte) 0x97, new AndParser());
-
-            opCodeLookup.put((byte) 0x18, new JumpRelativeParser());
-
-            opCodeLookup.put((byte) 0x19, new DoSentenceParser());
-            opCodeLookup.put((byte) 0x39, new DoSentenceParser());
-            opCodeLookup.put((byte) 0x59, new DoSentenceParser());
-            opCodeLookup.put((byte) 0x79, new DoSentenceParser());
-            opCodeLookup.put((byte) 0x99, new DoSentenceParser());
-            opCodeLookup.put((byte) 0xB9, new DoSentenceParser());
-            opCodeLookup.put((byte) 0xD9, new DoSentenceParser());
-            opCodeLookup.put((byte) 0xF9, new DoSentenceParser());
-
-            opCodeLookup.put((byte) 0x1A, new MoveParser());
-            opCodeLookup.put((byte) 0x9A, new MoveParser());
-
-            opCodeLookup.put((byte) 0x1B, new MultiplyParser());
-            opCodeLookup.put((byte) 0x9B, new MultiplyParser());
-
-            opCodeLookup.put((byte) 0x1C, new StartSoundParser());
-            opCodeLookup.put((byte) 0x9C, new StartSoundParser());
-
-            opCodeLookup.put((byte) 0x1D, new IfClassOfIsParser());
-            opCodeLookup.put((byte) 0x9D, new IfClassOfIsParser());
-
-            opCodeLookup.put((byte) 0x1E, new WalkActorToParser());
-            opCodeLookup.put((byte) 0x3E, new WalkActorToParser());
-            opCodeLookup.put((byte) 0x5E, new WalkActorToParser());
-            opCodeLookup.put((byte) 0x7E, new WalkActorToParser());
-            opCodeLookup.put((byte) 0x9E, new WalkActorToParser());
-            opCodeLookup.put((byte) 0xbE, new WalkActorToParser());
-            opCodeLookup.put((byte) 0xdE, new WalkActorToParser());
-            opCodeLookup.put((byte) 0xfE, new WalkActorToParser());
-
-            opCodeLookup.put((byte) 0x1F, new IsActorInBoxParser());
-            opCodeLookup.put((byte) 0x5F, new IsActorInBoxParser());
-            opCodeLookup.put((byte) 0x9F, new IsActorInBoxParser());
-            opCodeLookup.put((byte) 0xdF, new IsActorInBoxParser());
-
-            opCodeLookup.put((byte) 0x20, new StopMusicParser());
-
-            opCodeLookup.put((byte) 0x22, new GetAnimCounterParser());
-            opCodeLookup.put((byte) 0xa2, new GetAnimCounterParser());
-
-            opCodeLookup.put((byte) 0x23, new GetActorYParser());
-            opCodeLookup.put((byte) 0xA3, new GetActorYParser());
-
-            opCodeLookup.put((byte) 0x24, new LoadRoomWithEgoParser());
-            opCodeLookup.put((byte) 0x64, new LoadRoomWithEgoParser());
-            opCodeLookup.put((byte) 0xa4, new LoadRoomWithEgoParser());
-            opCodeLookup.put((byte) 0xe4, new LoadRoomWithEgoParser());
-
-            opCodeLookup.put((byte) 0x25, new PickupObjectParser());
-            opCodeLookup.put((byte) 0x65, new PickupObjectParser());
-            opCodeLookup.put((byte) 0xa5, new PickupObjectParser());
-            opCodeLookup.put((byte) 0xe5, new PickupObjectParser());
-
-            opCodeLookup.put((byte) 0x26, new SetVarRangeParser());
-            opCodeLookup.put((byte) 0xa6, new SetVarRangeParser());
-
-            opCodeLookup.put((byte) 0x27, new StringOpsParser());
-
-            opCodeLookup.put((byte) 0x28, new EqualZeroParser());
-
-            opCodeLookup.put((byte) 0x29, new SetOwnerOfParser());
-            opCodeLookup.put((byte) 0x69, new SetOwnerOfParser());
-            opCodeLookup.put((byte) 0xa9, new SetOwnerOfParser());
-            opCodeLookup.put((byte) 0xe9, new SetOwnerOfParser());
-
-            opCodeLookup.put((byte) 0x2B, new DelayVariableParser());
-
-            opCodeLookup.put((byte) 0x2C, new CursorCommandParser());
-
-            opCodeLookup.put((byte) 0x2D, new PutActorInRoomParser());
-            opCodeLookup.put((byte) 0x6D, new PutActorInRoomParser());
-            opCodeLookup.put((byte) 0xAD, new PutActorInRoomParser());
-            opCodeLookup.put((byte) 0xED, new PutActorInRoomParser());
-
-            opCodeLookup.put((byte) 0x2E, new DelayParser());
-
-            opCodeLookup.put((byte) 0x30, new MatrixOpParser());
-            opCodeLookup.put((byte) 0xb0, new MatrixOpParser());
-
-            opCodeLookup.put((byte) 0x31, new GetInventoryCountParser());
-            opCodeLookup.put((byte) 0xb1, new GetInventoryCountParser());
-
-            opCodeLookup.put((byte) 0x32, new SetCameraAtParser());
-            opCodeLookup.put((byte) 0xb2, new SetCameraAtParser());
-
-            opCodeLookup.put((byte) 0x33, new RoomOpsParser());
-            opCodeLookup.put((byte) 0x73, new RoomOpsParser());
-            opCodeLookup.put((byte) 0xb3, new RoomOpsParser());
-            opCodeLookup.put((byte) 0xf3, new RoomOpsParser());
-
-            opCodeLookup.put((byte) 0x34, new GetDistParser());
-            opCodeLookup.put((byte) 0x74, new GetDistParser());
-            opCodeLookup.put((byte) 0xb4, new GetDistParser());
-            opCodeLookup.put((byte) 0xf4, new GetDistParser());
-
-            opCodeLookup.put((byte) 0x35, new FindObjectParser());
-            opCodeLookup.put((byte) 0x75, new FindObjectParser());
-            opCodeLookup.put((byte) 0xb5, new FindObjectParser());
-            opCodeLookup.put((byte) 0xf5, new FindObjectParser());
-
-            opCodeLookup.put((byte) 0x36, new WalkActorToObjectParser());
-            opCodeLookup.put((byte) 0x76, new WalkActorToObjectParser());
-            opCodeLookup.put((byte) 0xb6, new WalkActorToObjectParser());
-            opCodeLookup.put((byte) 0xf6, new WalkActorToObjectParser());
-
-            opCodeLookup.put((byte) 0x37, new StartObjectParser());
-            opCodeLookup.put((byte) 0x77, new StartObjectParser());
-            opCodeLookup.put((byte) 0xb7, new StartObjectParser());
-            opCodeLookup.put((byte) 0xf7, new StartObjectParser());
-
-            opCodeLookup.put((byte) 0x38, new LessOrEqualParser());
-            opCodeLookup.put((byte) 0xb8, new LessOrEqualParser());
-
-            opCodeLookup.put((byte) 0x3A, new SubtractParser());
-            opCodeLookup.put((byte) 0xbA, new SubtractParser());
-
-            opCodeLookup.put((byte) 0x3B, new GetActorScaleParser());
-            opCodeLookup.put((byte) 0xbB, new GetActorScaleParser());
-
-            opCodeLookup.put((byte) 0x3C, new StopSoundParser());
-            opCodeLookup.put((byte) 0xbC, new StopSoundParser());
-
-            opCodeLookup.put((byte) 0x3D, new FindInventoryParser());
-            opCodeLookup.put((byte) 0x7D, new FindInventoryParser());
-            opCodeLookup.put((byte) 0xbD, new FindInventoryParser());
-            opCodeLookup.put((byte) 0xfD, new FindInventoryParser());
-
-            opCodeLookup.put((byte) 0x3F, new DrawBoxParser());
-            opCodeLookup.put((byte) 0x7F, new DrawBoxParser());
-            opCodeLookup.put((byte) 0xbF, new DrawBoxParser());
-            opCodeLookup.put((byte) 0xfF, new DrawBoxParser());
-
-            opCodeLookup.put((byte) 0x40, new CutSceneParser());
-
-            opCodeLookup.put((byte) 0x42, new ChainScriptParser());
-            opCodeLookup.put((byte) 0xc2, new ChainScriptParser());
-
-            opCodeLookup.put((byte) 0x43, new GetActorXParser());
-            opCodeLookup.put((byte) 0xC3, new GetActorXParser());
-
-            opCodeLookup.put((byte) 0x44, new IsLessParser());
-            opCodeLookup.put((byte) 0xc4, new IsLessParser());
-
-            opCodeLookup.put((byte) 0x46, new IncrementParser());
-
-            opCodeLookup.put((byte) 0x48, new IsEqualParser());
-            opCodeLookup.put((byte) 0xc8, new IsEqualParser());
-
-            opCodeLookup.put((byte) 0x4C, new SoundKludgeParser());
-
-            opCodeLookup.put((byte) 0x52, new ActorFollowCameraParser());
-            opCodeLookup.put((byte) 0xd2, new ActorFollowCameraParser());
-
-            opCodeLookup.put((byte) 0x54, new SetObjectNameParser());
-            opCodeLookup.put((byte) 0xd4, new SetObjectNameParser());
-
-            opCodeLookup.put((byte) 0x56, new GetActorMovingParser());
-            opCodeLookup.put((byte) 0xd6, new GetActorMovingParser());
-
-            opCodeLookup.put((byte) 0x57, new OrParser());
-            opCodeLookup.put((byte) 0xd7, new OrParser());
-
-            opCodeLookup.put((byte) 0x58, new OverrideParser());
-
-            opCodeLookup.put((byte) 0x5A, new AddParser());
-            opCodeLookup.put((byte) 0xDA, new AddParser());
-
-            opCodeLookup.put((byte) 0x5B, new DivideParser());
-            opCodeLookup.put((byte) 0xdB, new DivideParser());
-
-            opCodeLookup.put((byte) 0x5D, new ActorSetClassParser());
-            opCodeLookup.put((byte) 0xDD, new ActorSetClassParser());
-
-            opCodeLookup.put((byte) 0x60, new FreezeScriptsParser());
-            opCodeLookup.put((byte) 0xe0, new FreezeScriptsParser());
-
-            opCodeLookup.put((byte) 0x62, new StopScriptParser());
-            opCodeLookup.put((byte) 0xe2, new StopScriptParser());
-
-            opCodeLookup.put((byte) 0x63, new GetActorFacingParser());
-            opCodeLookup.put((byte) 0xE3, new GetActorFacingParser());
+    // 256 entries indexed by the unsigned opcode, see OpCodeSpec
+    private final OpCodeParser<?>[] dispatch;
+    private int parseBudget = DEFAULT_PARSE_BUDGET;
+    private ParseCache parseCache;
 
-            opCodeLookup.put((byte) 0x66, new GetClosestObjActorParser());
-            opCodeLookup.put((byte) 0xe6, new GetClosestObjActorParser());
-
-            opCodeLookup.put((byte) 0x67, new GetStringWidthParser());
-            opCodeLookup.put((byte) 0xe7, new GetStringWidthParser());
-
-            opCodeLookup.put((byte) 0x68, new GetScriptRunningParser());
-            opCodeLookup.put((byte) 0xe8, new GetScriptRunningParser());
-
-            opCodeLookup.put((byte) 0x6B, new DebugParser());
-            opCodeLookup.put((byte) 0xeB, new DebugParser());
-
-            opCodeLookup.put((byte) 0x6C, new GetActorWidthParser());
-            opCodeLookup.put((byte) 0xeC, new GetActorWidthParser());
-
-            opCodeLookup.put((byte) 0x6E, new StopObjectScriptParser());
-            opCodeLookup.put((byte) 0xeE, new StopObjectScriptParser());
-
-            opCodeLookup.put((byte) 0x70, new LightsParser());
-            opCodeLookup.put((byte) 0xf0, new LightsParser());
-
-            opCodeLookup.put((byte) 0x71, new GetActorCostumeParser());
-            opCodeLookup.put((byte) 0xf1, new GetActorCostumeParser());
-
-            opCodeLookup.put((byte) 0x72, new LoadRoomParser());
-            opCodeLookup.put((byte) 0xf2, new LoadRoomParser());
-
-            opCodeLookup.put((byte) 0x78, new IsGreaterParser());
-            opCodeLookup.put((byte) 0xf8, new IsGreaterParser());
-
-            opCodeLookup.put((byte) 0x7A, new VerbOpsParser());
-            opCodeLookup.put((byte) 0xfA, new VerbOpsParser());
-
-            opCodeLookup.put((byte) 0x7B, new GetActorWalkBoxParser());
-            opCodeLookup.put((byte) 0xFB, new GetActorWalkBoxParser());
-
-            opCodeLookup.put((byte) 0x7C, new IsSoundRunningParser());
-            opCodeLookup.put((byte) 0xfC, new IsSoundRunningParser());
-
-            opCodeLookup.put((byte) 0x80, new BreakHereParser());
-
-            opCodeLookup.put((byte) 0x98, new SystemOpsParser());
-
-            opCodeLookup.put((byte) 0xA7, new DummyParser());
-
-            opCodeLookup.put((byte) 0xA8, new NotEqualZeroParser());
-
-            opCodeLookup.put((byte) 0xAB, new SaveRestoreVerbsParser());
-
-            opCodeLookup.put((byte) 0xAC, new ExpressionParser());
+    public ScriptParser() {
+        // Opcodes that are more than a list of operands, everything else is decoded from the spec
+        Map<String, OpCodeParser<?>> custom = new HashMap<>();
+        custom.put("ActorOps", new ActorOpsParser());
+        custom.put("CursorCommand", new CursorCommandParser());
+        custom.put("DoSentence", new DoSentenceParser());
+        custom.put("DrawObject", new DrawObjectParser());
+        custom.put("Expression", new ExpressionParser(this));
+        custom.put("MatrixOp", new MatrixOpParser());
+        custom.put("Print", new PrintParser());
+        custom.put("PrintEgo", new PrintEgoParser());
+        custom.put("PseudoRoom", new PseudoRoomParser());
+        custom.put("ResourceRoutines", new ResourceRoutinesParser());
+        custom.put("RoomOps", new RoomOpsParser());
+        custom.put("SaveRestoreVerbs", new SaveRestoreVerbsParser());
+        custom.put("SetVarRange", new SetVarRangeParser());
+        custom.put("StringOps", new StringOpsParser());
+        custom.put("VerbOps", new VerbOpsParser());
+        custom.put("Wait", new WaitParser());
+        dispatch = OpCodeSpec.fromResource(OpCodeSpec.DEFAULT_RESOURCE).buildTable(custom);
+    }
+
+    public int getParseBudget() {
+        return parseBudget;
+    }
+
+    /**
+     * @param parseBudget maximum number of instructions decoded per script, decoding stops with
+     *                    {@link ParseDiagnostics.Reason#BUDGET_EXCEEDED} beyond that
+     */
+    public void setParseBudget(int parseBudget) {
+        this.parseBudget = parseBudget;
+    }
+
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * @param parseCache results of byte-identical scripts are taken from this cache by the parse and text export
+     *                   methods, null to always decode
+     */
+    public void setParseCache(ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * @return the parser for the opcode, null if the opcode is unknown
+     */
+    public OpCodeParser<?> getParser(byte opcode) {
+        return dispatch[opcode & 0xFF];
+    }
 
-            opCodeLookup.put((byte) 0xAE, new WaitParser());
+    public Script parse(Script script) {
+        return parse(script, ScriptQuery.all());
+    }
+
+    /**
+     * Parse only the instructions with selected opcodes, all others are skipped over without creating opcode
+     * objects. The script criteria of the query are up to the caller, see
+     * {@link ScriptExtractor#extractScripts(ByteBuffer, ScriptQuery)}.
+     *
+     * @return the script holding the selected instructions
+     */
+    public Script parse(Script script, ScriptQuery query) {
+        boolean[] mask = query.opcodeMask(dispatch);
+        ParseCache cache = parseCache;
+        ParseCache.Key key = null;
+        if (cache != null) {
+            key = cache.key(script, false, parseBudget, mask);
+            if (cache.restore(script, key)) {
+                return script;
+            }
+        }
 
-            opCodeLookup.put((byte) 0xC0, new EndCutSceneParser());
+        ParseContext ctx = new ParseContext(script.getBuffer());
+        ctx.opcodeMask = mask;
+        decode(script, ctx, (opcode, offset, length, opCode) -> {
+            script.add(opCode);
+            return true;
+        });
 
-            opCodeLookup.put((byte) 0xC6, new DecrementParser());
+        if (cache != null) {
+            cache.store(script, key);
+        }
+        return script;
+    }
 
-            opCodeLookup.put((byte) 0xCC, new PseudoRoomParser());
+    /**
+     * Parse into the compact {@link PackedScript} form. No opcode objects are kept, parse errors are set on the script.
+     */
+    public PackedScript pack(Script script) {
+        ParseContext ctx = new ParseContext(script.getBuffer());
+        ctx.materialize = false;
+        ctx.recordOperands();
+        PackedScript.Builder builder = new PackedScript.Builder(script, ctx);
+        decode(script, ctx, (opcode, offset, length, opCode) -> {
+            builder.add(opcode, offset, length);
+            return true;
+        });
+        return builder.build();
+    }
+
+    /**
+     * Fast path for text export: only the text-bearing opcodes ({@link ITextContainer}) are materialized,
+     * all other instructions are merely skipped over.
+     *
+     * @param script script to scan
+     * @param sink   receives a record for every text found
+     */
+    public void extractTexts(Script script, Consumer<TextRecord> sink) {
+        extractTexts(script, ScriptQuery.all(), sink);
+    }
+
+    /**
+     * Text export of the instructions with selected opcodes, see {@link #parse(Script, ScriptQuery)}
+     */
+    public void extractTexts(Script script, ScriptQuery query, Consumer<TextRecord> sink) {
+        boolean[] mask = query.opcodeMask(dispatch);
+        ParseCache cache = parseCache;
+        if (cache == null) {
+            scanTexts(script, mask, sink);
+            return;
+        }
+
+        ParseCache.Key key = cache.key(script, true, parseBudget, mask);
+        List<TextRecord> texts = cache.restoreTexts(script, key);
+        if (texts == null) {
+            texts = new ArrayList<>();
+            scanTexts(script, mask, texts::add);
+            cache.storeTexts(script, key, texts);
+        }
+        texts.forEach(sink);
+    }
+
+    private void scanTexts(Script script, boolean[] mask, Consumer<TextRecord> sink) {
+        ParseContext ctx = new ParseContext(script.getBuffer());
+        ctx.materialize = false;
+        ctx.opcodeMask = mask;
+        decode(script, ctx, (opcode, offset, length, opCode) -> {
+            if (opCode instanceof ITextContainer textContainer) {
+                sink.accept(new TextRecord(script, script.getOffset() + opCode.getOffset(), textContainer.getActor(), textContainer.getText()));
+            }
+            return true;
+        });
+    }
 
-            opCodeLookup.put((byte) 0xD8, new PrintEgoParser());
-        }
+    /**
+     * Receives every decoded instruction, opCode is null unless it was materialized
+     */
+    private interface InstructionSink {
+        /**
+         * @return false to stop decoding
+         */
+        boolean accept(byte opcode, int offset, int length, OpCode opCode);
     }
 
-    public Script parse(Script script) {
-        logger.printf(Level.INFO, "Starting parser for script type \"%s\" @ %08X", script.getType(), script.getOffset());
+    /**
+     * @return false if the sink stopped decoding
+     */
+    private boolean decode(Script script, ParseContext ctx, InstructionSink instructions) {
+        if (logger.isInfoEnabled()) {
+            logger.printf(Level.INFO, "Starting parser for script type \"%s\" @ %08X", script.getType(), script.getOffset());
+        }
         if (logger.isTraceEnabled()) {
             logger.printf(Level.TRACE, "Hex: %n%s", HexPrettyPrinter.hexView(script.getOriginalBytes(), 16));
         }
+        script.setDiagnostics(null);
 
-        byte[] bytes = script.getOriginalBytes();
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        ByteBuffer buffer = ctx.buffer;
         int offset = 8;
         if (script.getType().equals("LSCR")) {
             offset = 9;
         }
 
+        if (offset > buffer.limit()) {
+            return fail(script, ctx, ParseDiagnostics.Reason.TRUNCATED, (byte) 0, buffer.limit());
+        }
         buffer.position(offset);
 
         if (script.getType().equals("VERB")) {
@@ -391,6 +221,9 @@ public class ScriptParser {
             boolean hasVerbs = false;
 
             for(;;) {
+                if (!buffer.hasRemaining()) {
+                    return fail(script, ctx, ParseDiagnostics.Reason.TRUNCATED, (byte) 0, buffer.limit());
+                }
                 currentVerb = buffer.get();
 
                 if (currentVerb == 0x00) {
@@ -398,9 +231,15 @@ public class ScriptParser {
                         lowestOffset = 9;
                     }
                     offset = lowestOffset;
+                    if (offset > buffer.limit()) {
+                        return fail(script, ctx, ParseDiagnostics.Reason.TRUNCATED, (byte) 0, buffer.limit());
+                    }
                     buffer.position(offset);
                     break;
                 }
+                if (buffer.remaining() < 2) {
+                    return fail(script, ctx, ParseDiagnostics.Reason.TRUNCATED, (byte) 0, buffer.limit());
+                }
                 hasVerbs = true;
                 int verbOffset = buffer.get() & 0xff;
                 lowestOffset = (Math.min(lowestOffset, verbOffset));
@@ -408,57 +247,179 @@ public class ScriptParser {
             }
         }
 
-        while (buffer.position() < bytes.length) {
+        boolean[] mask = ctx.opcodeMask;
+        boolean materialize = ctx.materialize;
+        int instructionCount = 0;
+        while (buffer.position() < buffer.limit()) {
+            int start = buffer.position();
             byte opCode = buffer.get();
-            OpCodeParser parser = opCodeLookup.get(opCode);
-            int relativePosition = buffer.position() - 1 - offset;
-            int absolutePosition = script.getOffset() + buffer.position() - 1;
-
-            try {
-                logger.printf(Level.DEBUG, "@ %08X (abs: %08X rel: %04X) opcode %02X: %s", script.getOffset(), absolutePosition, relativePosition, opCode, parser.getClass().getSimpleName());
-                script.add(parser.run(opCode, buffer));
-            } catch (NullPointerException npe) {
-                logger.printf(Level.ERROR, "@ %08X (abs: %08X rel: %04X) opcode %02X: %s", script.getOffset(), absolutePosition, relativePosition, opCode, "Unknown OP Code");
-                script.setParseError(npe);
-            } catch (UnsupportedOperationException uoe) {
-                logger.printf(Level.ERROR, "@ %08X (abs: %08X rel: %04X) opcode %02X: Not Implemented: %s", script.getOffset(), absolutePosition, relativePosition, opCode, parser.getClass().getSimpleName());
-                script.setParseError(uoe);
-            } catch (BufferUnderflowException bue) {
-                logger.printf(Level.ERROR, "@ %08X (abs: %08X rel: %04X) ^^^ Something is wrong above. ^^^", script.getOffset(), absolutePosition, relativePosition, opCode, parser.getClass().getSimpleName());
-                script.setParseError(bue);
+
+            if (++instructionCount > parseBudget) {
+                return fail(script, ctx, ParseDiagnostics.Reason.BUDGET_EXCEEDED, opCode, start);
             }
 
-            if (script.hasParseError()) {
-                return script;
+            OpCodeParser<?> parser = dispatch[opCode & 0xFF];
+            if (parser == null) {
+                return fail(script, ctx, ParseDiagnostics.Reason.UNKNOWN_OPCODE, opCode, start);
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.printf(Level.DEBUG, "@ %08X (abs: %08X rel: %04X) opcode %02X: %s", script.getOffset(), script.getOffset() + start, start - offset, opCode, parser.getName());
+            }
+            boolean selected = mask == null || mask[opCode & 0xFF];
+            ctx.materialize = materialize && selected;
+            OpCode result = parser.run(opCode, ctx);
+
+            if (ctx.error != null) {
+                return fail(script, ctx, ctx.error, opCode, start);
+            }
+
+            if (selected && !instructions.accept(opCode, start, buffer.position() - start, result)) {
+                return false;
             }
         }
+        return true;
+    }
 
-        return script;
+    /**
+     * Record why decoding stopped. Decoding errors don't stop a walk, so this always returns true.
+     */
+    private boolean fail(Script script, ParseContext ctx, ParseDiagnostics.Reason reason, byte opCode, int offset) {
+        ctx.fail(reason);
+        ParseDiagnostics diagnostics = new ParseDiagnostics(reason, opCode, offset, script.getType(), script.getOffset());
+        script.setDiagnostics(diagnostics);
+        if (logger.isErrorEnabled()) {
+            logger.printf(Level.ERROR, "@ %08X (abs: %08X rel: %04X) opcode %02X: %s", script.getOffset(), diagnostics.getAbsoluteOffset(), offset, opCode, reason);
+        }
+        return true;
     }
 
-    // 0x44
-    static class CutSceneParser extends OpCodeParser<OpCode> {
-        public OpCode parse() {
-            getWordVararg();
-            return new CutScene();
+    /**
+     * Stream the instructions of a script to a visitor. Only text-bearing opcodes are materialized, the operands
+     * of all other instructions are passed on from a buffer that is reused for the whole script.
+     *
+     * @return false if the visitor stopped the walk
+     */
+    public boolean visit(Script script, ScriptVisitor visitor) {
+        if (!visitor.visitScript(script)) {
+            return true;
+        }
+
+        ParseContext ctx = new ParseContext(script.getBuffer());
+        ctx.materialize = false;
+        ctx.recordOperands();
+        ScriptVisitor.Operands operands = new ScriptVisitor.Operands(ctx);
+
+        boolean completed = decode(script, ctx, (opcode, offset, length, opCode) -> {
+            boolean proceed = visitor.visitInstruction(opcode, offset, length, operands);
+            if (proceed && opCode instanceof ITextContainer textContainer) {
+                proceed = visitor.visitText(opcode, offset, textContainer.getActor(), textContainer.getText());
+            }
+            ctx.operandCount = 0;
+            return proceed;
+        });
+
+        visitor.visitEnd(script);
+        return completed;
+    }
+
+    /**
+     * Visit the scripts in order until the visitor stops the walk
+     *
+     * @return false if the visitor stopped the walk
+     */
+    public boolean visit(Iterable<Script> scripts, ScriptVisitor visitor) {
+        for (Script script : scripts) {
+            if (!visit(script, visitor)) {
+                return false;
+            }
         }
+        return true;
     }
 
-    // 0x72
-    private static class LoadRoomParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new LoadRoom();
+    /**
+     * Convenience variant of {@link #extractTexts(Script, Consumer)}
+     */
+    public List<TextRecord> extractTexts(Script script) {
+        List<TextRecord> texts = new ArrayList<>();
+        extractTexts(script, texts::add);
+        return texts;
+    }
+
+    /**
+     * Parse all scripts on a dedicated fork-join pool. Parsing state is per call, so scripts are parsed
+     * independently; the result keeps the order of the input.
+     *
+     * @param scripts     scripts to parse
+     * @param parallelism number of worker threads, 1 parses on the calling thread
+     * @return the parsed scripts in input order
+     */
+    public List<Script> parseAll(List<Script> scripts, int parallelism) {
+        return forAll(scripts, parallelism, script -> Stream.of(parse(script)));
+    }
+
+    /**
+     * Pack all scripts, see {@link #parseAll(List, int)} and {@link #pack(Script)}
+     *
+     * @return the packed scripts in input order
+     */
+    public List<PackedScript> packAll(List<Script> scripts, int parallelism) {
+        return forAll(scripts, parallelism, script -> Stream.of(pack(script)));
+    }
+
+    /**
+     * Text export over all scripts, see {@link #parseAll(List, int)} and {@link #extractTexts(Script, Consumer)}
+     *
+     * @return the texts in input order
+     */
+    public List<TextRecord> extractTexts(List<Script> scripts, int parallelism) {
+        return forAll(scripts, parallelism, script -> extractTexts(script).stream());
+    }
+
+    /**
+     * Streaming text export: texts are passed to the sink in script order as soon as they are found, nothing
+     * is collected. With a parallelism above 1 the scripts are parsed on a dedicated fork-join pool.
+     *
+     * @param scripts     scripts to scan, e.g. {@link ScriptExtractor#streamScripts}
+     * @param parallelism number of worker threads, 1 runs on the calling thread
+     * @param sink        receives the texts in order, never concurrently
+     */
+    public void extractTexts(Stream<Script> scripts, int parallelism, Consumer<TextRecord> sink) {
+        extractTexts(scripts, parallelism, ScriptQuery.all(), sink);
+    }
+
+    /**
+     * Streaming text export of the instructions with selected opcodes, see
+     * {@link #extractTexts(Stream, int, Consumer)} and {@link #parse(Script, ScriptQuery)}
+     */
+    public void extractTexts(Stream<Script> scripts, int parallelism, ScriptQuery query, Consumer<TextRecord> sink) {
+        if (parallelism <= 1) {
+            scripts.forEachOrdered(script -> extractTexts(script, query, sink));
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> scripts.parallel().flatMap(script -> {
+                List<TextRecord> texts = new ArrayList<>();
+                extractTexts(script, query, texts::add);
+                return texts.stream();
+            }).forEachOrdered(sink)).join();
+        } finally {
+            pool.shutdown();
         }
     }
 
-    private static class ActorFollowCameraParser extends OpCodeParser<ActorFollowCamera> {
-        @Override
-        public ActorFollowCamera parse() {
-            getVarOrDirectByte(PARAM_1);
+    private <T> List<T> forAll(List<Script> scripts, int parallelism, Function<Script, Stream<T>> mapper) {
+        if (parallelism <= 1) {
+            return scripts.stream().flatMap(mapper).toList();
+        }
 
-            return new ActorFollowCamera();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> scripts.parallelStream().flatMap(mapper).toList()).join();
+        } finally {
+            pool.shutdown();
         }
     }
 
@@ -466,61 +427,61 @@ public class ScriptParser {
     private static class CursorCommandParser extends OpCodeParser<OpCode> {
         // TODO: Haben Sub-Opcodes auch die 0x80, 0x40 und 0x20 Ausprägungen?
         @Override
-        public OpCode parse() {
-            opcode = readValue8();
+        public OpCode parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
 
-            switch (opcode & (byte) 0x1F) {
+            switch (ctx.opcode & (byte) 0x1F) {
                 case 1, 2, 3, 4, 5, 6, 7, 8 -> {
                 }
                 case 10 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                 }
                 case 11 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    getVarOrDirectByte(PARAM_3);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_3);
                 }
-                case 12 -> getVarOrDirectByte(PARAM_1);
-                case 13 -> getVarOrDirectByte(PARAM_1);
-                case 14 -> getWordVararg();
+                case 12 -> ctx.getVarOrDirectByte(PARAM_1);
+                case 13 -> ctx.getVarOrDirectByte(PARAM_1);
+                case 14 -> ctx.getWordVararg();
                 default -> {
                 }
             }
 
-            return new CursorCommand();
+            return ctx.create(CursorCommand::new);
         }
     }
 
     private static class StringOpsParser extends OpCodeParser<StringOps> {
         @Override
-        public StringOps parse() {
+        public StringOps parse(ParseContext ctx) {
             StringOps stringOps = new StringOps();
 
-            opcode = readValue8();
-            switch (opcode & (byte) 0x1F) {
+            ctx.opcode = ctx.readValue8();
+            switch (ctx.opcode & (byte) 0x1F) {
                 case 1 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    String s = loadPtrToResource(resStrLen());
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    String s = ctx.readText();
                     stringOps.setText(s);
                 }
                 case 2 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                 }
                 case 3 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    getVarOrDirectByte(PARAM_3);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_3);
                 }
                 case 4 -> {
-                    int pos = getResultPos();
-                    int a = getVarOrDirectByte(PARAM_1);
-                    int b = getVarOrDirectByte(PARAM_2);
+                    int pos = ctx.getResultPos();
+                    int a = ctx.getVarOrDirectByte(PARAM_1);
+                    int b = ctx.getVarOrDirectByte(PARAM_2);
                 }
                 case 5 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                 }
                 default -> {
                 }
@@ -529,61 +490,45 @@ public class ScriptParser {
         }
     }
 
-    private static class SubtractParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-            return new Subtract();
-        }
-    }
-
-    private static class SystemOpsParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            opcode = readValue8();
-            return new SystemOps();
-        }
-    }
-
     private static class VerbOpsParser extends OpCodeParser<OpCode> {
         @Override
-        public OpCode parse() {
+        public OpCode parse(ParseContext ctx) {
             VerbOps verbOps = new VerbOps();
 
-            getVarOrDirectByte(PARAM_1);
+            ctx.getVarOrDirectByte(PARAM_1);
 
-            while ((opcode = readValue8()) != (byte) 0xff) {
+            while ((ctx.opcode = ctx.readValue8()) != (byte) 0xff) {
 
-                switch (opcode & (byte) 0x1F) {
-                    case 1 -> getVarOrDirectWord(PARAM_1);
+                switch (ctx.opcode & (byte) 0x1F) {
+                    case 1 -> ctx.getVarOrDirectWord(PARAM_1);
                     case 2 -> {
-                        String s = loadPtrToResource(resStrLen());
+                        String s = ctx.readText();
                         verbOps.setText(s);
                     }
-                    case 3 -> getVarOrDirectByte(PARAM_1);
-                    case 4 -> getVarOrDirectByte(PARAM_1);
+                    case 3 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 4 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 5 -> {
-                        getVarOrDirectWord(PARAM_1);
-                        getVarOrDirectWord(PARAM_2);
+                        ctx.getVarOrDirectWord(PARAM_1);
+                        ctx.getVarOrDirectWord(PARAM_2);
                     }
                     case 6, 7, 8, 9 -> {
                     }
-                    case 16 -> getVarOrDirectByte(PARAM_1);
+                    case 16 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 17 -> {
                     }
-                    case 18 -> getVarOrDirectByte(PARAM_1);
+                    case 18 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 19 -> {
                     }
                     case 20 -> {
-                        getVarOrDirectWord(PARAM_1);
-                        loadPtrToResource(resStrLen() + 1);
+                        ctx.getVarOrDirectWord(PARAM_1);
+                        ctx.skipText();
+                        ctx.readValue8();
                     }
                     case 22 -> {
-                        getVarOrDirectWord(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectWord(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
                     }
-                    case 23 -> getVarOrDirectByte(PARAM_1);
+                    case 23 -> ctx.getVarOrDirectByte(PARAM_1);
                     default -> {
                     }
                 }
@@ -597,747 +542,188 @@ public class ScriptParser {
     private static class WaitParser extends OpCodeParser<OpCode> {
         // TODO: Haben Sub-Opcodes auch die 0x80, 0x40 und 0x20 Ausprägungen?
         @Override
-        public OpCode parse() {
-            opcode = readValue8();
+        public OpCode parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
 
-            switch (opcode & 0x1F) {
-                case 1 -> getVarOrDirectByte(PARAM_1);
+            switch (ctx.opcode & 0x1F) {
+                case 1 -> ctx.getVarOrDirectByte(PARAM_1);
                 case 2, 3, 4 -> {
                 }
             }
 
-            return new Wait();
-        }
-    }
-
-    private static class WalkActorToParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-            getVarOrDirectWord(PARAM_3);
-
-            return new WalkActorTo();
-        }
-    }
-
-    private static class WalkActorToActorParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            readValue8();
-
-            return new WalkActorToActor();
-        }
-    }
-
-    private static class WalkActorToObjectParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            return new WalkActorToObject();
-        }
-    }
-
-    private static class DebugParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectWord(PARAM_1);
-            return new Debug();
-        }
-    }
-
-    private static class DecrementParser extends OpCodeParser<Decrement> {
-        @Override
-        public Decrement parse() {
-            getResultPos();
-            return new Decrement();
-        }
-    }
-
-    // 0x2E
-    private static class DelayParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            // This should be 24-bit LE
-            readValue24();
-            return new Delay();
-        }
-    }
-
-    private static class DelayVariableParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVar();
-            return new DelayVariable();
-        }
-    }
-
-    private static class DivideParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-
-            return new Divide();
+            return ctx.create(Wait::new);
         }
     }
 
     private static class DoSentenceParser extends OpCodeParser<OpCode> {
         @Override
-        public OpCode parse() {
-            int verb = getVarOrDirectByte(PARAM_1);
+        public OpCode parse(ParseContext ctx) {
+            int verb = ctx.getVarOrDirectByte(PARAM_1);
             byte b = Integer.valueOf(verb).byteValue();
             if (b != (byte) 0xFE) {
-                getVarOrDirectWord(PARAM_2);
-                getVarOrDirectWord(PARAM_3);
+                ctx.getVarOrDirectWord(PARAM_2);
+                ctx.getVarOrDirectWord(PARAM_3);
             }
-            return new DoSentence();
-        }
-    }
-
-    private static class DrawBoxParser extends OpCodeParser<DrawBox> {
-        @Override
-        public DrawBox parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            readValue8();
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-            getVarOrDirectByte(PARAM_3);
-
-            return new DrawBox();
+            return ctx.create(DoSentence::new);
         }
     }
 
     private static class DrawObjectParser extends OpCodeParser<DrawObject> {
         @Override
-        public DrawObject parse() {
-            getVarOrDirectWord(PARAM_1);
+        public DrawObject parse(ParseContext ctx) {
+            ctx.getVarOrDirectWord(PARAM_1);
 
-            opcode = readValue8();
+            ctx.opcode = ctx.readValue8();
 
-            switch (opcode & (byte) 0x1F) {
+            switch (ctx.opcode & (byte) 0x1F) {
                 case 1 -> {
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
                 }
-                case 2 -> getVarOrDirectWord(PARAM_1);
+                case 2 -> ctx.getVarOrDirectWord(PARAM_1);
                 case 0x1F -> {
                 }
                 default -> {
                 }
             }
 
-            return new DrawObject();
-        }
-    }
-
-    private static class ActorFromPosParser extends OpCodeParser<ActorFromPos> {
-        @Override
-        public ActorFromPos parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            return new ActorFromPos();
+            return ctx.create(DrawObject::new);
         }
     }
 
-    private static class DummyParser extends OpCodeParser<OpCode> {
-    }
+    private static class ExpressionParser extends OpCodeParser<Expression> {
+        private final ScriptParser scriptParser;
 
-    // 0xC0
-    private static class EndCutSceneParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            // NOP
-            return new EndCutScene();
+        private ExpressionParser(ScriptParser scriptParser) {
+            this.scriptParser = scriptParser;
         }
-    }
 
-    private static class EqualZeroParser extends OpCodeParser<OpCode> {
         @Override
-        public OpCode parse() {
-            getVar();
-            readTarget();
-            return new EqualZero();
-        }
-    }
-
-    private class ExpressionParser extends OpCodeParser<Expression> {
-        @Override
-        public Expression parse() {
-            int result = getResultPos();
-            while ((opcode = readValue8()) != (byte) 0xff) {
+        public Expression parse(ParseContext ctx) {
+            int result = ctx.getResultPos();
+            while ((ctx.opcode = ctx.readValue8()) != (byte) 0xff) {
                 check:
-                switch (opcode & 0x1F) {
-                    case 1 -> getVarOrDirectByte(PARAM_1);
+                switch (ctx.opcode & 0x1F) {
+                    case 1 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 2, 3, 4, 5 -> {
                     }
                     case 6 -> {
-                        byte opcode = readValue8();
-                        OpCodeParser opCodeParser = opCodeLookup.get(opcode);
-                        opCodeParser.run(opcode, buffer);
+                        byte nested = ctx.readValue8();
+                        OpCodeParser<?> parser = scriptParser.getParser(nested);
+                        if (parser == null) {
+                            ctx.fail(ParseDiagnostics.Reason.UNKNOWN_OPCODE);
+                        } else {
+                            parser.run(nested, ctx);
+                        }
                     }
                 }
             }
 
-            return new Expression();
-        }
-    }
-
-    private static class FaceActorParser extends OpCodeParser<FaceActor> {
-        @Override
-        public FaceActor parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            return new FaceActor();
-        }
-    }
-
-    private static class FindInventoryParser extends OpCodeParser<FindInventory> {
-        @Override
-        public FindInventory parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new FindInventory();
-        }
-    }
-
-    private static class FindObjectParser extends OpCodeParser<FindObject> {
-        @Override
-        public FindObject parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new FindObject();
-        }
-    }
-
-    private static class FreezeScriptsParser extends OpCodeParser<FreezeScripts> {
-        @Override
-        public FreezeScripts parse() {
-            getVarOrDirectByte(PARAM_1);
-
-            return new FreezeScripts();
-        }
-    }
-
-    private static class GetActorCostumeParser extends OpCodeParser<GetActorCostume> {
-        @Override
-        public GetActorCostume parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-
-            return new GetActorCostume();
-        }
-    }
-
-    private static class GetActorElevationParser extends OpCodeParser<GetActorElevation> {
-        @Override
-        public GetActorElevation parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-
-            return new GetActorElevation();
+            return ctx.create(Expression::new);
         }
     }
 
     private static class ActorOpsParser extends OpCodeParser<OpCode> {
         @Override
-        public OpCode parse() {
-            int actor = getVarOrDirectByte(PARAM_1);
+        public OpCode parse(ParseContext ctx) {
+            int actor = ctx.getVarOrDirectByte(PARAM_1);
 
-            while((opcode = buffer.get()) != (byte)0xFF) {
-                switch (opcode & (byte) 0x1F) {
-                    case 0 -> getVarOrDirectByte(PARAM_1);
-                    case 1 -> getVarOrDirectByte(PARAM_1);
+            while((ctx.opcode = ctx.readValue8()) != (byte)0xFF) {
+                switch (ctx.opcode & (byte) 0x1F) {
+                    case 0 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 1 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 2 -> {
-                        getVarOrDirectByte(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectByte(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
                     }
-                    case 3 -> getVarOrDirectByte(PARAM_1);
-                    case 4 -> getVarOrDirectByte(PARAM_1);
+                    case 3 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 4 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 5 -> {
-                        getVarOrDirectByte(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectByte(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
                     }
-                    case 6 -> getVarOrDirectByte(PARAM_1);
+                    case 6 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 7 -> {
-                        getVarOrDirectByte(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
-                        getVarOrDirectByte(PARAM_3);
+                        ctx.getVarOrDirectByte(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectByte(PARAM_3);
                     }
                     case 8 -> {
                     }
-                    case 9 -> getVarOrDirectWord(PARAM_1);
+                    case 9 -> ctx.getVarOrDirectWord(PARAM_1);
                     case 10 -> {
                     }
                     case 11 -> {
-                        getVarOrDirectByte(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectByte(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
                     }
-                    case 12 -> getVarOrDirectByte(PARAM_1);
-                    case 13 -> loadPtrToResource(resStrLen());
-                    case 14 -> getVarOrDirectByte(PARAM_1);
-                    case 16 -> getVarOrDirectByte(PARAM_1);
+                    case 12 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 13 -> ctx.skipText();
+                    case 14 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 16 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 17 -> {
-                        getVarOrDirectByte(PARAM_1);
-                        getVarOrDirectByte(PARAM_2);
+                        ctx.getVarOrDirectByte(PARAM_1);
+                        ctx.getVarOrDirectByte(PARAM_2);
                     }
                     case 18 -> {
                     }
-                    case 19 -> getVarOrDirectByte(PARAM_1);
+                    case 19 -> ctx.getVarOrDirectByte(PARAM_1);
                     case 20 -> {
                     }
                     case 21 -> {
                     }
-                    case 22 -> getVarOrDirectByte(PARAM_1);
-                    case 23 -> getVarOrDirectByte(PARAM_1);
+                    case 22 -> ctx.getVarOrDirectByte(PARAM_1);
+                    case 23 -> ctx.getVarOrDirectByte(PARAM_1);
                 }
             }
 
-            return new ActorOps();
-        }
-    }
-
-    private static class GetActorFacingParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            int result = getResultPos();
-            int actor = getVarOrDirectByte(PARAM_1);
-
-            return new GetActorFacing();
-        }
-    }
-
-    private static class GetActorMovingParser extends OpCodeParser<GetActorMoving> {
-        @Override
-        public GetActorMoving parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new GetActorMoving();
-        }
-    }
-
-    private static class GetActorRoomParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new GetActorRoom();
-        }
-    }
-
-    private static class GetActorScaleParser extends OpCodeParser<GetActorScale> {
-        @Override
-        public GetActorScale parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-
-            return new GetActorScale();
-        }
-    }
-
-    private static class GetActorWalkBoxParser extends OpCodeParser<GetActorWalkBox> {
-        @Override
-        public GetActorWalkBox parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-
-            return new GetActorWalkBox();
-        }
-    }
-
-    private static class GetActorWidthParser extends OpCodeParser<GetActorWidth> {
-        @Override
-        public GetActorWidth parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-
-            return new GetActorWidth();
-        }
-    }
-
-    private static class GetActorXParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            int result = buffer.getShort();
-            buffer.getShort();
-            return new GetActorX();
-        }
-    }
-
-    private static class GetActorYParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            int result = buffer.getShort();
-            buffer.getShort();
-            return new GetActorY();
-        }
-    }
-
-    private static class GetAnimCounterParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class GetClosestObjActorParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class ActorSetClassParser extends OpCodeParser<ActorSetClass> {
-        @Override
-        public ActorSetClass parse() {
-            getVarOrDirectWord(PARAM_1);
-            getWordVararg();
-            return new ActorSetClass();
-        }
-    }
-
-    private static class GetDistParser extends OpCodeParser<GetDist> {
-        @Override
-        public GetDist parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            return new GetDist();
-        }
-    }
-
-    private static class GetInventoryCountParser extends OpCodeParser<GetInventoryCount> {
-        @Override
-        public GetInventoryCount parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new GetInventoryCount();
-        }
-    }
-
-    private static class GetObjectOwnerParser extends OpCodeParser<GetObjectOwner> {
-        @Override
-        public GetObjectOwner parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-
-            return new GetObjectOwner();
-        }
-    }
-
-    private static class GetObjectStateParser extends OpCodeParser<GetObjectState> {
-        @Override
-        public GetObjectState parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-
-            return new GetObjectState();
-        }
-    }
-
-    private static class GetRandomNumberParser extends OpCodeParser<GetRandomNumber> {
-        @Override
-        public GetRandomNumber parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new GetRandomNumber();
-        }
-    }
-
-    private static class GetScriptRunningParser extends OpCodeParser<GetScriptRunning> {
-        @Override
-        public GetScriptRunning parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new GetScriptRunning();
-        }
-    }
-
-    private static class GetStringWidthParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class GetVerbEntryPointParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            int result = buffer.getShort();
-            buffer.getShort();
-            buffer.getShort();
-            return new GetVerbEntryPoint();
-        }
-    }
-
-    private static class IfClassOfIsParser extends OpCodeParser<IfClassOfIs> {
-        @Override
-        public IfClassOfIs parse() {
-            getVarOrDirectWord(PARAM_1);
-            getWordVararg();
-            getResultPos();
-            return new IfClassOfIs();
-        }
-    }
-
-    private static class IfNotStateParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class AddParser extends OpCodeParser<Add> {
-        @Override
-        public Add parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-
-            return new Add();
-        }
-    }
-
-    private static class IfStateParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class IncrementParser extends OpCodeParser<Increment> {
-        @Override
-        public Increment parse() {
-            getResultPos();
-            return new Increment();
-        }
-    }
-
-    private static class IsActorInBoxParser extends OpCodeParser<IsActorInBox> {
-        @Override
-        public IsActorInBox parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new IsActorInBox();
-        }
-    }
-
-    // 0x48 || 0xC8
-    private static class IsEqualParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-            return new IsEqual();
-        }
-    }
-
-    private static class IsGreaterParser extends OpCodeParser<IsGreater> {
-        @Override
-        public IsGreater parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-
-            return new IsGreater();
-        }
-    }
-
-    private static class IsGreaterEqualParser extends OpCodeParser<IsGreaterEqual> {
-        @Override
-        public IsGreaterEqual parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-
-            return new IsGreaterEqual();
-        }
-    }
-
-    private static class IsLessParser extends OpCodeParser<IsLess> {
-        @Override
-        public IsLess parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-
-            return new IsLess();
-        }
-    }
-
-    private static class IsNotEqualParser extends OpCodeParser<IsNotEqual> {
-        @Override
-        public IsNotEqual parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-
-            return new IsNotEqual();
-        }
-    }
-
-    // 0x7C
-    private static class IsSoundRunningParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getResultPos();
-            getVarOrDirectByte(PARAM_1);
-            return new IsSoundRunning();
-        }
-    }
-
-    // 0x18
-    private static class JumpRelativeParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            readTarget();
-            return new JumpRelative();
-        }
-    }
-
-    private static class AndParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class LessOrEqualParser extends OpCodeParser<LessOrEqual> {
-        @Override
-        public LessOrEqual parse() {
-            getVar();
-            getVarOrDirectWord(PARAM_1);
-            readTarget();
-
-            return new LessOrEqual();
-        }
-    }
-
-    private static class LightsParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            readValue8();
-            readValue8();
-            return new Lights();
-        }
-    }
-
-    private static class LoadRoomWithEgoParser extends OpCodeParser<LoadRoomWithEgo> {
-        @Override
-        public LoadRoomWithEgo parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-
-            int x = readValue16();
-            int y = readValue16();
-
-            return new LoadRoomWithEgo();
+            return ctx.create(ActorOps::new);
         }
     }
 
     private static class MatrixOpParser extends OpCodeParser<MatrixOp> {
         @Override
-        public MatrixOp parse() {
-            opcode = readValue8();
+        public MatrixOp parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
 
-            switch (opcode & (byte) 0x1F) {
+            switch (ctx.opcode & (byte) 0x1F) {
                 case 1, 2, 3 -> {
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                 }
                 //case 4:
                 default -> {
                 }
             }
 
-            return new MatrixOp();
-        }
-    }
-
-    // 0x1A
-    private static class MoveParser extends OpCodeParser<Move> {
-        @Override
-        public Move parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-            return new Move();
-        }
-    }
-
-    private static class MultiplyParser extends OpCodeParser<Multiply> {
-        @Override
-        public Multiply parse() {
-            getResultPos();
-            getVarOrDirectWord(PARAM_1);
-
-            return new Multiply();
-        }
-    }
-
-    private static class NotEqualZeroParser extends OpCodeParser<NotEqualZero> {
-        @Override
-        public NotEqualZero parse() {
-            getVar();
-            readTarget();
-            return new NotEqualZero();
-        }
-    }
-
-    private static class OldRoomEffectParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class OrParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class AnimateActorParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new AnimateActor();
-        }
-    }
-
-    // 0x58
-    private static class OverrideParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            buffer.get();
-            return new OverRide();
-        }
-    }
-
-    private static class PanCameraToParser extends OpCodeParser<PanCameraTo> {
-        @Override
-        public PanCameraTo parse() {
-            getVarOrDirectWord(PARAM_1);
-
-            return new PanCameraTo();
-        }
-    }
-
-    private static class PickupObjectParser extends OpCodeParser<PickupObject> {
-        @Override
-        public PickupObject parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new PickupObject();
+            return ctx.create(MatrixOp::new);
         }
     }
 
     // 0x14
     private static class PrintParser extends OpCodeParser<Print> {
         @Override
-        public Print parse() {
+        public Print parse(ParseContext ctx) {
             Print p = new Print();
-            int actor = getVarOrDirectByte(PARAM_1);
+            int actor = ctx.getVarOrDirectByte(PARAM_1);
             p.setActor(String.valueOf(actor));
 
-            while ((opcode = readValue8()) != (byte) 0xFF) {
+            while ((ctx.opcode = ctx.readValue8()) != (byte) 0xFF) {
                 // Text Pos
-                switch (opcode & (byte) 0xF) {
+                switch (ctx.opcode & (byte) 0xF) {
                     case (byte) 0x00 -> {
-                        int x = getVarOrDirectWord(PARAM_1);
-                        int y = getVarOrDirectWord(PARAM_2);
+                        int x = ctx.getVarOrDirectWord(PARAM_1);
+                        int y = ctx.getVarOrDirectWord(PARAM_2);
                     }
                     case (byte) 0x01 -> {
-                        int color = getVarOrDirectByte(PARAM_1);
+                        int color = ctx.getVarOrDirectByte(PARAM_1);
                     }
                     case (byte) 0x02 -> {
-                        int right = getVarOrDirectWord(PARAM_1);
+                        int right = ctx.getVarOrDirectWord(PARAM_1);
                     }
                     case (byte) 0x03 -> {
-                        int width = getVarOrDirectWord(PARAM_1);
-                        int height = getVarOrDirectWord(PARAM_2);
+                        int width = ctx.getVarOrDirectWord(PARAM_1);
+                        int height = ctx.getVarOrDirectWord(PARAM_2);
                     }
                     case (byte) 0x04 -> {
                     }
@@ -1346,11 +732,11 @@ public class ScriptParser {
                     case (byte) 0x07 -> {
                     }
                     case (byte) 0x08 -> {
-                        int offset = getVarOrDirectWord(PARAM_1);
-                        int delay = getVarOrDirectWord(PARAM_2);
+                        int offset = ctx.getVarOrDirectWord(PARAM_1);
+                        int delay = ctx.getVarOrDirectWord(PARAM_2);
                     }
                     case (byte) 0x0F -> {
-                        String s = loadPtrToResource(resStrLen());
+                        String s = ctx.readText();
                         p.setText(s);
                         return p;
                     }
@@ -1365,31 +751,31 @@ public class ScriptParser {
 
     private static class PrintEgoParser extends OpCodeParser<Print> {
         @Override
-        public Print parse() {
+        public Print parse(ParseContext ctx) {
             Print p = new Print();
 
             p.setActor("Guybrush");
 
-            while ((opcode = readValue8()) != (byte)0xFF) {
+            while ((ctx.opcode = ctx.readValue8()) != (byte)0xFF) {
                 // Text Pos
-                if (opcode == 0) {
-                    int x = getVarOrDirectWord(PARAM_1);
-                    int y = getVarOrDirectWord(PARAM_2);
-                } else if (opcode == 1) {
-                    int color = getVarOrDirectByte(PARAM_1);
-                } else if (opcode == 2) {
-                    int right = getVarOrDirectWord(PARAM_1);
-                } else if (opcode == 3) {
-                    int width = getVarOrDirectWord(PARAM_1);
-                    int height = getVarOrDirectWord(PARAM_2);
-                } else if (opcode == 4) {
-                } else if (opcode == 6) {
-                } else if (opcode == 7) {
-                } else if (opcode == 8) {
-                    int offset = getVarOrDirectWord(PARAM_1);
-                    int delay = getVarOrDirectWord(PARAM_2);
-                } else if (opcode == 15) {
-                    String s = loadPtrToResource(resStrLen());
+                if (ctx.opcode == 0) {
+                    int x = ctx.getVarOrDirectWord(PARAM_1);
+                    int y = ctx.getVarOrDirectWord(PARAM_2);
+                } else if (ctx.opcode == 1) {
+                    int color = ctx.getVarOrDirectByte(PARAM_1);
+                } else if (ctx.opcode == 2) {
+                    int right = ctx.getVarOrDirectWord(PARAM_1);
+                } else if (ctx.opcode == 3) {
+                    int width = ctx.getVarOrDirectWord(PARAM_1);
+                    int height = ctx.getVarOrDirectWord(PARAM_2);
+                } else if (ctx.opcode == 4) {
+                } else if (ctx.opcode == 6) {
+                } else if (ctx.opcode == 7) {
+                } else if (ctx.opcode == 8) {
+                    int offset = ctx.getVarOrDirectWord(PARAM_1);
+                    int delay = ctx.getVarOrDirectWord(PARAM_2);
+                } else if (ctx.opcode == 15) {
+                    String s = ctx.readText();
                     p.setText(s);
                     return p;
                 }
@@ -1401,336 +787,159 @@ public class ScriptParser {
 
     private static class PseudoRoomParser extends OpCodeParser<PseudoRoom> {
         @Override
-        public PseudoRoom parse() {
-            while (readValue8() != (byte) 0x00) {
+        public PseudoRoom parse(ParseContext ctx) {
+            while (ctx.readValue8() != (byte) 0x00 && !ctx.hasError()) {
             }
 
-            return new PseudoRoom();
-        }
-    }
-
-    private static class PutActorParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-            getVarOrDirectWord(PARAM_3); // TODO: Check
-            return new PutActor();
-        }
-    }
-
-    private static class PutActorAtObjectParser extends OpCodeParser<PutActorAtObject> {
-        @Override
-        public PutActorAtObject parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectWord(PARAM_2);
-
-            return new PutActorAtObject();
-        }
-    }
-
-    private static class PutActorInRoomParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new PutActorInRoom();
-        }
-    }
-
-    // 0x80
-    private static class BreakHereParser extends OpCodeParser<OpCode> {
-        @Override
-        public OpCode parse() {
-            return new BreakHere();
+            return ctx.create(PseudoRoom::new);
         }
     }
 
     private static class ResourceRoutinesParser extends OpCodeParser<ResourceRoutines> {
         @Override
-        public ResourceRoutines parse() {
-            opcode = readValue8();
-            if (opcode != 17) {
-                getVarOrDirectByte(PARAM_1);
+        public ResourceRoutines parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
+            if (ctx.opcode != 17) {
+                ctx.getVarOrDirectByte(PARAM_1);
             }
 
-            int op = opcode & 0x3F;
+            int op = ctx.opcode & 0x3F;
 
             switch (op) {
                 case 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 19 -> {
                 }
-                case 20 -> getVarOrDirectByte(PARAM_2);
+                case 20 -> ctx.getVarOrDirectByte(PARAM_2);
                 case 36 -> {
-                    getVarOrDirectByte(PARAM_2);
-                    readValue8();
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.readValue8();
                 }
-                case 37 -> getVarOrDirectByte(PARAM_2);
+                case 37 -> ctx.getVarOrDirectByte(PARAM_2);
             }
 
-            return new ResourceRoutines();
+            return ctx.create(ResourceRoutines::new);
         }
     }
 
     // 0x33
     private static class RoomOpsParser extends OpCodeParser<OpCode> {
         @Override
-        public OpCode parse() {
-            opcode = buffer.get();
+        public OpCode parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
 
-            switch (opcode & (byte)0x1F) {
+            switch (ctx.opcode & (byte)0x1F) {
                 case 1:
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
                     break;
                 case 2:
                     break;
                 case 3:
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
                     break;
                 case 4:
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
-                    getVarOrDirectWord(PARAM_3);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_3);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
                     break;
                 case 5:
                 case 6:
                     // NOP
                     break;
                 case 7:
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
                     break;
                 case 8:
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    getVarOrDirectByte(PARAM_3);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_3);
                     break;
                 case 9:
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                     break;
                 case 10:
-                    getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_1);
                     break;
                 case 11:
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
-                    getVarOrDirectWord(PARAM_3);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_3);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                     break;
                 case 12:
-                    getVarOrDirectWord(PARAM_1);
-                    getVarOrDirectWord(PARAM_2);
-                    getVarOrDirectWord(PARAM_3);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_1);
+                    ctx.getVarOrDirectWord(PARAM_2);
+                    ctx.getVarOrDirectWord(PARAM_3);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                     break;
                 case 13:
-                    getVarOrDirectByte(PARAM_1);
-                    loadPtrToResource(resStrLen());
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.skipText();
                 case 14:
-                    getVarOrDirectByte(PARAM_1);
-                    loadPtrToResource(resStrLen());
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.skipText();
                     break;
                 case 15:
-                    getVarOrDirectByte(PARAM_1);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
-                    readValue8();
-                    getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
+                    ctx.readValue8();
+                    ctx.getVarOrDirectByte(PARAM_1);
                     break;
                 case 16:
-                    getVarOrDirectByte(PARAM_1);
-                    getVarOrDirectByte(PARAM_2);
+                    ctx.getVarOrDirectByte(PARAM_1);
+                    ctx.getVarOrDirectByte(PARAM_2);
                     break;
             }
 
-            return new RoomOps();
+            return ctx.create(RoomOps::new);
         }
     }
 
-    private static class SaveLoadGameParser extends OpCodeParser<OpCode> {
-    }
-
-    private static class SaveLoadVarsParser extends OpCodeParser<OpCode> {
-    }
-
     private static class SaveRestoreVerbsParser extends OpCodeParser<SaveRestoreVerbs> {
         @Override
-        public SaveRestoreVerbs parse() {
-            opcode = readValue8();
+        public SaveRestoreVerbs parse(ParseContext ctx) {
+            ctx.opcode = ctx.readValue8();
 
-            getVarOrDirectByte(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            getVarOrDirectByte(PARAM_3);
+            ctx.getVarOrDirectByte(PARAM_1);
+            ctx.getVarOrDirectByte(PARAM_2);
+            ctx.getVarOrDirectByte(PARAM_3);
 
-            switch (opcode) {
+            switch (ctx.opcode) {
                 case 1, 2, 3 -> {
                 }
             }
 
-            return new SaveRestoreVerbs();
-        }
-    }
-
-    private static class SetCameraAtParser extends OpCodeParser<SetCameraAt> {
-        @Override
-        public SetCameraAt parse() {
-            getVarOrDirectWord(PARAM_1);
-
-            return new SetCameraAt();
-        }
-    }
-
-    private static class SetObjectNameParser extends OpCodeParser<SetObjectName> {
-        @Override
-        public SetObjectName parse() {
-            getVarOrDirectWord(PARAM_1);
-            loadPtrToResource(resStrLen());
-            return new SetObjectName();
-        }
-    }
-
-    // 0x29
-    private static class SetOwnerOfParser extends OpCodeParser<SetOwnerOf> {
-        @Override
-        public SetOwnerOf parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-
-            return new SetOwnerOf();
-        }
-    }
-
-    private static class SetStateParser extends OpCodeParser<SetState> {
-        @Override
-        public SetState parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            return new SetState();
+            return ctx.create(SaveRestoreVerbs::new);
         }
     }
 
     private static class SetVarRangeParser extends OpCodeParser<SetVarRange> {
         @Override
-        public SetVarRange parse() {
-            getResultPos();
-            byte numValues = readValue8();
+        public SetVarRange parse(ParseContext ctx) {
+            ctx.getResultPos();
+            byte numValues = ctx.readValue8();
 
             for (int i = 0; i < numValues; i++) {
-                getVarOrDirectByte(PARAM_1);
+                ctx.getVarOrDirectByte(PARAM_1);
             }
 
-            return new SetVarRange();
-        }
-    }
-
-    private static class ChainScriptParser extends OpCodeParser<ChainScript> {
-        @Override
-        public ChainScript parse() {
-            getVarOrDirectByte(PARAM_1);
-            getWordVararg();
-
-            return new ChainScript();
-        }
-    }
-
-    private static class SoundKludgeParser extends OpCodeParser<SoundKludge> {
-        @Override
-        public SoundKludge parse() {
-            getWordVararg();
-            return new SoundKludge();
-        }
-    }
-
-    private static class StartMusicParser extends OpCodeParser<StartMusic> {
-        @Override
-        public StartMusic parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new StartMusic();
-        }
-    }
-
-    private static class StartObjectParser extends OpCodeParser<StartObject> {
-        @Override
-        public StartObject parse() {
-            getVarOrDirectWord(PARAM_1);
-            getVarOrDirectByte(PARAM_2);
-            getWordVararg();
-            return new StartObject();
-        }
-    }
-
-    // 0x0A, 0x2A, 0x4A, 0x6A
-    private static class StartScriptParser extends OpCodeParser<StartScript> {
-        @Override
-        public StartScript parse() {
-            getVarOrDirectByte(PARAM_1);
-            getWordVararg();
-            return new StartScript();
-        }
-    }
-
-    // 0x1C
-    private static class StartSoundParser extends OpCodeParser<StartSound> {
-        @Override
-        public StartSound parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new StartSound();
-        }
-    }
-
-    // 0x20
-    private static class StopMusicParser extends OpCodeParser<StopMusic> {
-        @Override
-        public StopMusic parse() {
-            // NOP
-            return new StopMusic();
-        }
-    }
-
-    // 0xA0
-    private static class StopObjectCodeParser extends OpCodeParser<StopObjectCode> {
-        @Override
-        public StopObjectCode parse() {
-            // NOP
-            return new StopObjectCode();
-        }
-    }
-
-    private static class StopObjectScriptParser extends OpCodeParser<StopObjectScript> {
-        @Override
-        public StopObjectScript parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new StopObjectScript();
+            return ctx.create(SetVarRange::new);
         }
     }
 
-    private static class StopScriptParser extends OpCodeParser<StopScript> {
-        @Override
-        public StopScript parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new StopScript();
-        }
-    }
-
-    private static class StopSoundParser extends OpCodeParser<StopSound> {
-        @Override
-        public StopSound parse() {
-            getVarOrDirectByte(PARAM_1);
-            return new StopSound();
-        }
-    }
 }
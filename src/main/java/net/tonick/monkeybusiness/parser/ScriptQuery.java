@@ -0,0 +1,190 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects scripts and instructions, applied as early as possible instead of filtering the results.
+ * <p>
+ * Script types, rooms and the offset range are checked by the {@link BlockWalker}, which doesn't descend into
+ * containers that can't hold a selected script; see {@link ScriptExtractor#extractScripts(java.io.File, ScriptQuery)}
+ * for a walk that doesn't even decode them. Opcodes are checked while decoding: instructions with other opcodes
+ * are only skipped over, see {@link ScriptParser#parse(Script, ScriptQuery)}. Every criterion that isn't set
+ * matches everything.
+ */
+public class ScriptQuery {
+    private static final List<String> ROOM_TYPES = List.of(ScriptExtractor.LSCR, ScriptExtractor.EXCD,
+            ScriptExtractor.ENCD, ScriptExtractor.OBCD);
+
+    private Set<String> types;
+    private BitSet rooms;
+    private int fromOffset = 0;
+    private int toOffset = Integer.MAX_VALUE;
+    private Set<String> opcodeNames;
+    private BitSet opcodes;
+
+    // Opcodes resolved against the dispatch table they were last used with
+    private volatile Resolved resolved;
+
+    /**
+     * @return a query that selects everything
+     */
+    public static ScriptQuery all() {
+        return new ScriptQuery();
+    }
+
+    /**
+     * @param types script types, e.g. {@link ScriptExtractor#LSCR}
+     */
+    public ScriptQuery setTypes(String... types) {
+        this.types = new LinkedHashSet<>(Arrays.asList(types));
+        return this;
+    }
+
+    public ScriptQuery setRooms(int... rooms) {
+        this.rooms = new BitSet();
+        for (int room : rooms) {
+            this.rooms.set(room);
+        }
+        return this;
+    }
+
+    /**
+     * Select the scripts whose block starts in [fromOffset, toOffset)
+     */
+    public ScriptQuery setOffsets(int fromOffset, int toOffset) {
+        if (fromOffset < 0 || toOffset < fromOffset) {
+            throw new IllegalArgumentException("Invalid offset range " + fromOffset + "-" + toOffset);
+        }
+        this.fromOffset = fromOffset;
+        this.toOffset = toOffset;
+        return this;
+    }
+
+    /**
+     * @param names names of {@link net.tonick.monkeybusiness.opcodes.OpCode} classes, e.g. "Print", covering
+     *              all their variants
+     */
+    public ScriptQuery setOpcodes(String... names) {
+        this.opcodeNames = new LinkedHashSet<>(Arrays.asList(names));
+        this.resolved = null;
+        return this;
+    }
+
+    /**
+     * @param opcodes opcode bytes, 0-255
+     */
+    public ScriptQuery setOpcodeValues(int... opcodes) {
+        this.opcodes = new BitSet(256);
+        for (int opcode : opcodes) {
+            this.opcodes.set(opcode & 0xFF);
+        }
+        this.resolved = null;
+        return this;
+    }
+
+    /**
+     * @return true if nothing is filtered
+     */
+    public boolean isAll() {
+        return types == null && rooms == null && fromOffset == 0 && toOffset == Integer.MAX_VALUE && !hasOpcodes();
+    }
+
+    public boolean hasRooms() {
+        return rooms != null;
+    }
+
+    public boolean hasOpcodes() {
+        return opcodeNames != null || opcodes != null;
+    }
+
+    public boolean matchesType(String type) {
+        return types == null || types.contains(type);
+    }
+
+    /**
+     * @param room room number, -1 if unknown, which only matches if no rooms are selected
+     */
+    public boolean matchesRoom(int room) {
+        return rooms == null || (room >= 0 && rooms.get(room));
+    }
+
+    /**
+     * @return true if a script block starting at the offset is selected
+     */
+    public boolean matchesOffset(int offset) {
+        return offset >= fromOffset && offset < toOffset;
+    }
+
+    /**
+     * @return true if a block spanning [start, end) can contain the start of a selected script
+     */
+    public boolean overlaps(int start, int end) {
+        return start < toOffset && end > fromOffset;
+    }
+
+    /**
+     * @return true if a room container (ROOM) can hold a selected script type
+     */
+    public boolean selectsRoomScripts() {
+        return types == null || ROOM_TYPES.stream().anyMatch(types::contains);
+    }
+
+    /**
+     * @return true if the script itself is selected, opcodes aside
+     */
+    public boolean matches(Script script) {
+        return matchesType(script.getType()) && matchesRoom(script.getRoom()) && matchesOffset(script.getOffset());
+    }
+
+    /**
+     * @return selected opcodes indexed by the unsigned opcode, null if all are selected
+     */
+    boolean[] opcodeMask(OpCodeParser<?>[] dispatch) {
+        if (!hasOpcodes()) {
+            return null;
+        }
+
+        Resolved current = resolved;
+        if (current != null && current.dispatch == dispatch) {
+            return current.mask;
+        }
+
+        boolean[] mask = new boolean[256];
+        for (int i = 0; i < mask.length; i++) {
+            OpCodeParser<?> parser = dispatch[i];
+            mask[i] = (opcodes != null && opcodes.get(i))
+                    || (opcodeNames != null && parser != null && opcodeNames.contains(opcodeName(parser)));
+        }
+        resolved = new Resolved(dispatch, mask);
+        return mask;
+    }
+
+    private static String opcodeName(OpCodeParser<?> parser) {
+        String name = parser.getName();
+        return name.endsWith("Parser") ? name.substring(0, name.length() - "Parser".length()) : name;
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptQuery{" +
+                "types=" + (types == null ? "all" : types) +
+                ", rooms=" + (rooms == null ? "all" : rooms) +
+                ", offsets=" + String.format("%08X-%08X", fromOffset, toOffset) +
+                ", opcodes=" + (hasOpcodes() ? (opcodeNames != null ? opcodeNames : "") + (opcodes != null ? opcodes.toString() : "") : "all") +
+                '}';
+    }
+
+    private static final class Resolved {
+        private final OpCodeParser<?>[] dispatch;
+        private final boolean[] mask;
+
+        private Resolved(OpCodeParser<?>[] dispatch, boolean[] mask) {
+            this.dispatch = dispatch;
+            this.mask = mask;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Yields scripts while the {@link BlockWalker} finds them. Splitting hands a block range of the outermost
+ * container to another walker, so parallel streams walk the rooms of a file concurrently.
+ */
+public class ScriptSpliterator implements Spliterator<Script> {
+    private final BlockWalker walker;
+
+    public ScriptSpliterator(BlockWalker walker) {
+        this.walker = walker;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Script> action) {
+        if (!walker.hasNext()) {
+            return false;
+        }
+        action.accept(walker.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Script> action) {
+        walker.forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<Script> trySplit() {
+        BlockWalker prefix = walker.trySplit();
+        return prefix == null ? null : new ScriptSpliterator(prefix);
+    }
+
+    @Override
+    public long estimateSize() {
+        return walker.estimateRemaining();
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+}
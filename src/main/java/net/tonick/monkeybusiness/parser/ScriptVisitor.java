@@ -0,0 +1,66 @@
+package net.tonick.monkeybusiness.parser;
+
+/**
+ * Callbacks for {@link ScriptParser#visit(Script, ScriptVisitor)}, which streams the instructions of a script
+ * without building {@link net.tonick.monkeybusiness.opcodes.OpCode} objects.
+ * <p>
+ * Offsets are relative to the start of the script. Returning false from {@link #visitInstruction} or
+ * {@link #visitText} stops the walk.
+ */
+public interface ScriptVisitor {
+    /**
+     * @return false to skip the script
+     */
+    default boolean visitScript(Script script) {
+        return true;
+    }
+
+    /**
+     * Called for every instruction
+     *
+     * @param operands operands of this instruction, only valid during the call
+     * @return false to stop the walk
+     */
+    default boolean visitInstruction(byte opcode, int offset, int length, Operands operands) {
+        return true;
+    }
+
+    /**
+     * Called after {@link #visitInstruction} for instructions that carry a text
+     *
+     * @param actor speaking actor, null if the instruction has none
+     * @return false to stop the walk
+     */
+    default boolean visitText(byte opcode, int offset, String actor, String text) {
+        return true;
+    }
+
+    /**
+     * Called when a script is done, {@link Script#getDiagnostics()} tells whether it was decoded completely
+     */
+    default void visitEnd(Script script) {
+    }
+
+    /**
+     * Operands of the current instruction as read by the {@link ParseContext} helpers, variables are
+     * given as their variable number
+     */
+    final class Operands {
+        private final ParseContext ctx;
+
+        Operands(ParseContext ctx) {
+            this.ctx = ctx;
+        }
+
+        public int size() {
+            return ctx.operandCount;
+        }
+
+        public int get(int index) {
+            if (index < 0 || index >= ctx.operandCount) {
+                throw new IndexOutOfBoundsException("Operand " + index + " of " + ctx.operandCount);
+            }
+            return ctx.operands[index];
+        }
+    }
+}
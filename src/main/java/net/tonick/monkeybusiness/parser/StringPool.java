@@ -0,0 +1,63 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * String section of the binary files written by {@link TextIndex} and {@link GameSnapshot}: every string is
+ * stored once as a little-endian UTF-8 length followed by the UTF-8 bytes and referenced by its offset, -1
+ * meaning null. Texts repeat a lot (e.g. actor names), so deduplicating them keeps the files small.
+ */
+final class StringPool {
+    private final Map<String, Integer> offsets = new HashMap<>();
+    private byte[] bytes = new byte[4096];
+    private int length;
+
+    /**
+     * @return offset of the string in the pool, -1 for null
+     */
+    int add(String string) {
+        if (string == null) {
+            return -1;
+        }
+        return offsets.computeIfAbsent(string, s -> {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            while (length + Integer.BYTES + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int offset = length;
+            ByteBuffer.wrap(bytes, offset, Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(utf8.length);
+            System.arraycopy(utf8, 0, bytes, offset + Integer.BYTES, utf8.length);
+            length += Integer.BYTES + utf8.length;
+            return offset;
+        });
+    }
+
+    /**
+     * @return the pool contents for writing
+     */
+    ByteBuffer toBuffer() {
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    /**
+     * Read a string from a pool stored in a little-endian buffer
+     *
+     * @param pool   buffer holding the pool
+     * @param start  index of the pool in the buffer
+     * @param offset offset of the string in the pool, -1 for null
+     */
+    static String read(ByteBuffer pool, int start, int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int pos = start + offset;
+        byte[] utf8 = new byte[pool.getInt(pos)];
+        pool.get(pos + Integer.BYTES, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
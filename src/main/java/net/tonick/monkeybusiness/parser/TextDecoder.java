@@ -0,0 +1,175 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes 0x00 terminated Scumm messages straight from the script buffer in a single pass.
+ * <p>
+ * Messages are CP850 with embedded escapes: 0xFF followed by a code byte and, except for the codes
+ * 1, 2, 3 and 8, a little-endian 16 bit operand. {@link #decode(ByteBuffer)} keeps the escapes as characters
+ * exactly like decoding the raw bytes with the IBM850 charset did, {@link #tokenize(ByteBuffer)} splits them
+ * out into {@link TextToken}s instead.
+ */
+public final class TextDecoder {
+    private static final Charset CP850 = Charset.forName("IBM850");
+    private static final char[] CHARS = buildTable();
+
+    private TextDecoder() {
+    }
+
+    private static char[] buildTable() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return new String(bytes, CP850).toCharArray();
+    }
+
+    /**
+     * @return the character the CP850 byte decodes to
+     */
+    public static char toChar(byte b) {
+        return CHARS[b & 0xFF];
+    }
+
+    /**
+     * @return true if the escape code is followed by a 16 bit operand
+     */
+    public static boolean hasOperand(int code) {
+        return code != 1 && code != 2 && code != 3 && code != 8;
+    }
+
+    /**
+     * Decode the message at the buffer position and advance the position past its terminating 0x00
+     *
+     * @return the message, null if it isn't terminated before the buffer limit
+     */
+    public static String decode(ByteBuffer buffer) {
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        char[] chars = new char[32];
+        int length = 0;
+
+        int escapeBytes = 0;
+        byte b;
+        while (true) {
+            if (pos >= limit) {
+                buffer.position(limit);
+                return null;
+            }
+            b = buffer.get(pos++);
+            if (b == 0x00 && escapeBytes == 0) {
+                break;
+            }
+
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = CHARS[b & 0xFF];
+
+            if (escapeBytes > 0) {
+                // The code byte decides whether an operand follows, operand bytes may be 0x00
+                escapeBytes = escapeBytes == 3 ? (hasOperand(b) ? 2 : 0) : escapeBytes - 1;
+            } else if (b == (byte) 0xFF) {
+                escapeBytes = 3;
+            }
+        }
+
+        buffer.position(pos);
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Advance the buffer position past the message and its terminating 0x00 without decoding it
+     *
+     * @return false if the message isn't terminated before the buffer limit
+     */
+    public static boolean skip(ByteBuffer buffer) {
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        while (pos < limit) {
+            byte b = buffer.get(pos++);
+            if (b == 0x00) {
+                buffer.position(pos);
+                return true;
+            }
+            if (b == (byte) 0xFF && pos < limit && hasOperand(buffer.get(pos++))) {
+                pos += 2;
+            }
+        }
+
+        buffer.position(limit);
+        return false;
+    }
+
+    /**
+     * Split the message at the buffer position into text runs and escapes and advance the position
+     * past its terminating 0x00. A message that isn't terminated ends at the buffer limit.
+     */
+    public static List<TextToken> tokenize(ByteBuffer buffer) {
+        List<TextToken> tokens = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        byte b;
+        while (pos < limit && (b = buffer.get(pos++)) != 0x00) {
+            if (b != (byte) 0xFF) {
+                run.append(CHARS[b & 0xFF]);
+                continue;
+            }
+
+            if (!run.isEmpty()) {
+                tokens.add(new TextToken(run.toString()));
+                run.setLength(0);
+            }
+
+            if (pos >= limit) {
+                break;
+            }
+            int code = buffer.get(pos++) & 0xFF;
+            int operand = -1;
+            if (hasOperand(code)) {
+                if (pos + 2 > limit) {
+                    break;
+                }
+                operand = (buffer.get(pos) & 0xFF) | (buffer.get(pos + 1) & 0xFF) << 8;
+                pos += 2;
+            }
+            tokens.add(new TextToken(typeOf(code), null, code, operand));
+        }
+
+        if (!run.isEmpty()) {
+            tokens.add(new TextToken(run.toString()));
+        }
+
+        buffer.position(Math.min(pos, limit));
+        return tokens;
+    }
+
+    /**
+     * Split an already decoded message back into tokens. CP850 maps all 256 bytes to distinct characters,
+     * so the text still carries every escape byte.
+     */
+    public static List<TextToken> tokenize(String text) {
+        byte[] bytes = Arrays.copyOf(text.getBytes(CP850), text.length() + 1);
+        return tokenize(ByteBuffer.wrap(bytes));
+    }
+
+    private static TextToken.Type typeOf(int code) {
+        return switch (code) {
+            case 1 -> TextToken.Type.NEWLINE;
+            case 2 -> TextToken.Type.KEEP_TEXT;
+            case 3 -> TextToken.Type.WAIT;
+            case 4 -> TextToken.Type.INT_VAR;
+            case 5 -> TextToken.Type.VERB;
+            case 6 -> TextToken.Type.NAME;
+            case 7 -> TextToken.Type.STRING;
+            default -> TextToken.Type.ESCAPE;
+        };
+    }
+}
@@ -0,0 +1,264 @@
+package net.tonick.monkeybusiness.parser;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sidecar index of a game file, so repeated runs on an unchanged file skip walking and parsing it.
+ * <p>
+ * The index holds the script block table as found by {@link ScriptExtractor#extractScripts(ByteBuffer)} and
+ * every text found by {@link ScriptParser#extractTexts(Script, Consumer)}. It is keyed by the size, modification
+ * time and content hash of the game file and is ignored once any of them changes. An opened index is memory
+ * mapped, texts are decoded when asked for.
+ * <p>
+ * Layout, little-endian:
+ * <pre>
+ * header   magic "MBIX", version, file size (64 bit), mtime (64 bit), content hash (64 bit),
+ *          script count, text count, string pool offset
+ * scripts  per script: type tag, offset, length, room, parent type tag, parent offset
+ * texts    per text: script type tag, script offset, opcode offset, actor string, text string
+ * strings  see {@link StringPool}
+ * </pre>
+ */
+public class TextIndex {
+    private static final Logger logger = LogManager.getLogger(TextIndex.class);
+
+    public static final String SUFFIX = ".mbidx";
+
+    private static final int MAGIC = BlockWalker.tag("MBIX");
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 48;
+    private static final int SCRIPT_ENTRY_LENGTH = 24;
+    private static final int TEXT_ENTRY_LENGTH = 20;
+
+    private final ByteBuffer index;
+    private final int scriptCount;
+    private final int textCount;
+    private final int scriptsStart;
+    private final int textsStart;
+    private final int stringsStart;
+
+    private TextIndex(ByteBuffer index) {
+        this.index = index.order(ByteOrder.LITTLE_ENDIAN);
+        this.scriptCount = this.index.getInt(32);
+        this.textCount = this.index.getInt(36);
+        this.scriptsStart = HEADER_LENGTH;
+        this.textsStart = scriptsStart + scriptCount * SCRIPT_ENTRY_LENGTH;
+        this.stringsStart = this.index.getInt(40);
+    }
+
+    /**
+     * @return the index file next to the game file, or in the cache directory if one is given
+     */
+    public static File indexFileFor(File gameFile, File cacheDir) {
+        File dir = cacheDir != null ? cacheDir : gameFile.getAbsoluteFile().getParentFile();
+        return new File(dir, gameFile.getName() + SUFFIX);
+    }
+
+    /**
+     * Open the index of the game file, building and writing it first if it is missing or out of date
+     *
+     * @param gameFile    Scumm v5 data file
+     * @param cacheDir    directory for the index, null to store it next to the game file
+     * @param parser      parser used if the index has to be built
+     * @param parallelism number of worker threads for building, see {@link ScriptParser#extractTexts(List, int)}
+     * @return the index
+     * @throws IOException
+     */
+    public static TextIndex load(File gameFile, File cacheDir, ScriptParser parser, int parallelism) throws IOException {
+        File indexFile = indexFileFor(gameFile, cacheDir);
+        TextIndex index = open(indexFile, gameFile);
+        if (index != null) {
+            return index;
+        }
+
+        logger.info("Building index {} for {}", indexFile, gameFile);
+        build(gameFile, parser, parallelism, indexFile);
+        return open(indexFile, gameFile);
+    }
+
+    /**
+     * Open an existing index
+     *
+     * @param indexFile index file
+     * @param gameFile  game file the index has to match
+     * @return the index, null if it is missing, of another version or out of date
+     * @throws IOException
+     */
+    public static TextIndex open(File indexFile, File gameFile) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_LENGTH) {
+            return null;
+        }
+
+        ByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            return null;
+        }
+
+        // Size and mtime first, the content hash needs a pass over the file
+        Path game = gameFile.toPath();
+        if (index.getLong(8) != Files.size(game)
+                || index.getLong(16) != Files.getLastModifiedTime(game).toMillis()
+                || index.getLong(24) != contentHash(gameFile)) {
+            logger.info("Index {} is out of date", indexFile);
+            return null;
+        }
+
+        return new TextIndex(index);
+    }
+
+    /**
+     * Walk and parse the game file and write its index. The file is written under a temporary name and
+     * moved into place, so concurrent runs never see a partial index.
+     *
+     * @throws IOException
+     */
+    public static void build(File gameFile, ScriptParser parser, int parallelism, File indexFile) throws IOException {
+        Path game = gameFile.toPath();
+        long size = Files.size(game);
+        long mtime = Files.getLastModifiedTime(game).toMillis();
+        long hash = contentHash(gameFile);
+
+        List<Script> scripts = ScriptExtractor.extractScripts(ScriptExtractor.mapFile(gameFile));
+        List<TextRecord> texts = parser.extractTexts(scripts, parallelism);
+
+        StringPool strings = new StringPool();
+        ByteBuffer entries = ByteBuffer.allocate(scripts.size() * SCRIPT_ENTRY_LENGTH + texts.size() * TEXT_ENTRY_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (Script script : scripts) {
+            entries.putInt(BlockWalker.tag(script.getType()))
+                    .putInt(script.getOffset())
+                    .putInt(script.getLength())
+                    .putInt(script.getRoom())
+                    .putInt(script.getParentType() == null ? 0 : BlockWalker.tag(script.getParentType()))
+                    .putInt(script.getParentOffset());
+        }
+        for (TextRecord text : texts) {
+            entries.putInt(BlockWalker.tag(text.getScriptType()))
+                    .putInt(text.getScriptOffset())
+                    .putInt(text.getOpCodeOffset())
+                    .putInt(strings.add(text.getActor()))
+                    .putInt(strings.add(text.getText()));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(size)
+                .putLong(mtime)
+                .putLong(hash)
+                .putInt(scripts.size())
+                .putInt(texts.size())
+                .putInt(HEADER_LENGTH + entries.capacity());
+
+        writeFile(indexFile, header.rewind(), entries.rewind(), strings.toBuffer());
+    }
+
+    /**
+     * Write the parts under a temporary name and move the file into place, so readers never see a partial file
+     */
+    static void writeFile(File file, ByteBuffer... parts) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        Path temp = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (parts[parts.length - 1].hasRemaining()) {
+                    channel.write(parts);
+                }
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Hash of the raw file contents, read through a memory mapping
+     */
+    static long contentHash(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ParseCache.hash(mapped);
+        }
+    }
+
+    public int getScriptCount() {
+        return scriptCount;
+    }
+
+    /**
+     * Recreate a script from the block table without walking the file
+     *
+     * @param data decoded game file, see {@link ScriptExtractor#mapFile(File)}
+     * @param i    script number in file order
+     * @return the script, a view into data
+     */
+    public Script getScript(ByteBuffer data, int i) {
+        int entry = scriptsStart + i * SCRIPT_ENTRY_LENGTH;
+        int offset = index.getInt(entry + 4);
+        int length = index.getInt(entry + 8);
+
+        Script script = new Script(BlockWalker.tagName(index.getInt(entry)), offset, length, data.slice(offset, length));
+        script.setRoom(index.getInt(entry + 12));
+        int parentTag = index.getInt(entry + 16);
+        script.setParentType(parentTag == 0 ? null : BlockWalker.tagName(parentTag));
+        script.setParentOffset(index.getInt(entry + 20));
+        return script;
+    }
+
+    /**
+     * @return all scripts in file order, like {@link ScriptExtractor#extractScripts(ByteBuffer)}
+     */
+    public List<Script> getScripts(ByteBuffer data) {
+        List<Script> scripts = new ArrayList<>(scriptCount);
+        for (int i = 0; i < scriptCount; i++) {
+            scripts.add(getScript(data, i));
+        }
+        return scripts;
+    }
+
+    public int getTextCount() {
+        return textCount;
+    }
+
+    /**
+     * @param i text number in file order
+     */
+    public TextRecord getText(int i) {
+        int entry = textsStart + i * TEXT_ENTRY_LENGTH;
+        return new TextRecord(BlockWalker.tagName(index.getInt(entry)), index.getInt(entry + 4), index.getInt(entry + 8),
+                readString(index.getInt(entry + 12)), readString(index.getInt(entry + 16)));
+    }
+
+    /**
+     * Pass all texts in file order to the sink, like {@link ScriptParser#extractTexts(java.util.stream.Stream, int, Consumer)}
+     */
+    public void forEachText(Consumer<TextRecord> sink) {
+        for (int i = 0; i < textCount; i++) {
+            sink.accept(getText(i));
+        }
+    }
+
+    private String readString(int offset) {
+        return StringPool.read(index, stringsStart, offset);
+    }
+}
@@ -0,0 +1,73 @@
+package net.tonick.monkeybusiness.parser;
+
+import java.util.List;
+
+/**
+ * A text found in a script, together with where it came from
+ */
+public class TextRecord {
+    private final String scriptType;
+    private final int scriptOffset;
+    private final int opCodeOffset;
+    private final String actor;
+    private final String text;
+
+    public TextRecord(Script script, int opCodeOffset, String actor, String text) {
+        this(script.getType(), script.getOffset(), opCodeOffset, actor, text);
+    }
+
+    public TextRecord(String scriptType, int scriptOffset, int opCodeOffset, String actor, String text) {
+        this.scriptType = scriptType;
+        this.scriptOffset = scriptOffset;
+        this.opCodeOffset = opCodeOffset;
+        this.actor = actor;
+        this.text = text;
+    }
+
+    public String getScriptType() {
+        return scriptType;
+    }
+
+    /**
+     * @return absolute offset of the script block in the file
+     */
+    public int getScriptOffset() {
+        return scriptOffset;
+    }
+
+    /**
+     * @return absolute offset of the opcode in the file
+     */
+    public int getOpCodeOffset() {
+        return opCodeOffset;
+    }
+
+    /**
+     * @return speaking actor, null if the opcode has none
+     */
+    public String getActor() {
+        return actor;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the text split into plain runs and escape codes like waits or variable inserts
+     */
+    public List<TextToken> getTokens() {
+        return TextDecoder.tokenize(text);
+    }
+
+    @Override
+    public String toString() {
+        return "TextRecord{" +
+                "scriptType='" + scriptType + '\'' +
+                ", scriptOffset=" + String.format("%08X", scriptOffset) +
+                ", opCodeOffset=" + String.format("%08X", opCodeOffset) +
+                ", actor='" + actor + '\'' +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package net.tonick.monkeybusiness.parser;
+
+/**
+ * A piece of a Scumm message: either a run of plain text or one of the 0xFF escape codes with its operand
+ */
+public class TextToken {
+    public enum Type {
+        TEXT,
+        NEWLINE,    // 0xFF 0x01
+        KEEP_TEXT,  // 0xFF 0x02
+        WAIT,       // 0xFF 0x03
+        INT_VAR,    // 0xFF 0x04 var
+        VERB,       // 0xFF 0x05 var
+        NAME,       // 0xFF 0x06 var
+        STRING,     // 0xFF 0x07 var
+        ESCAPE      // any other escape code, e.g. sound, color or charset changes
+    }
+
+    private final Type type;
+    private final String text;
+    private final int code;
+    private final int operand;
+
+    public TextToken(String text) {
+        this(Type.TEXT, text, 0, -1);
+    }
+
+    public TextToken(Type type, String text, int code, int operand) {
+        this.type = type;
+        this.text = text;
+        this.code = code;
+        this.operand = operand;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the text of a {@link Type#TEXT} run, null for escapes
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the escape code following 0xFF, 0 for text runs
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the 16 bit operand of the escape, -1 if it has none
+     */
+    public int getOperand() {
+        return operand;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.TEXT) {
+            return "TextToken{TEXT '" + text + "'}";
+        }
+        return "TextToken{" + type + ", code=" + code + ", operand=" + operand + '}';
+    }
+}
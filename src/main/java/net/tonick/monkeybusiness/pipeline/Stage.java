@@ -0,0 +1,225 @@
+package net.tonick.monkeybusiness.pipeline;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * One step of a pipeline: a bounded input queue drained by a number of workers, which pass their results on to
+ * the next stage.
+ * <p>
+ * A full queue blocks the stage in front of it, so a slow stage slows down everything before it instead of
+ * piling up items. I/O stages run their workers on virtual threads, CPU stages on the pipeline's platform thread
+ * pool. {@link #close()} ends the input, the stage closes the next one as soon as its last worker is done.
+ * <p>
+ * An item whose worker throws is logged, counted as failed and dropped. Workers that have to account for every
+ * item, like the steps of {@link TextPipeline}, handle their errors themselves.
+ *
+ * @param <I> items taken from the input queue
+ * @param <O> items passed to the next stage
+ */
+public class Stage<I, O> {
+    private static final Logger logger = LogManager.getLogger(Stage.class);
+
+    private static final Object END = new Object();
+
+    private final String name;
+    private final int parallelism;
+    private final boolean io;
+    private final BlockingQueue<Object> input;
+    private final BiConsumer<I, Consumer<O>> worker;
+    private Stage<O, ?> next;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * @param parallelism number of workers
+     * @param io          true to run the workers on virtual threads
+     * @param capacity    size of the input queue
+     * @param worker      processes an item and passes any number of results to the consumer
+     */
+    public Stage(String name, int parallelism, boolean io, int capacity, BiConsumer<I, Consumer<O>> worker) {
+        if (parallelism < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs at least one worker and queue slot");
+        }
+        this.name = name;
+        this.parallelism = parallelism;
+        this.io = io;
+        this.input = new ArrayBlockingQueue<>(capacity);
+        this.worker = worker;
+    }
+
+    /**
+     * Connect the next stage
+     *
+     * @return the next stage
+     */
+    public <N> Stage<O, N> then(Stage<O, N> next) {
+        this.next = next;
+        return next;
+    }
+
+    /**
+     * Start the workers
+     *
+     * @param cpu executor for CPU stages, needs a thread per worker
+     * @param io  executor for I/O stages
+     */
+    public void start(ExecutorService cpu, ExecutorService io) {
+        startNanos = System.nanoTime();
+        running.set(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            (this.io ? io : cpu).execute(this::work);
+        }
+    }
+
+    /**
+     * Queue an item, blocks while the queue is full
+     */
+    public void put(I item) throws InterruptedException {
+        input.put(item);
+        maxDepth.accumulateAndGet(input.size(), Math::max);
+    }
+
+    /**
+     * End the input, the workers stop once the queue is drained
+     */
+    public void close() throws InterruptedException {
+        input.put(END);
+    }
+
+    /**
+     * Wait until all workers are done
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        try {
+            for (; ; ) {
+                Object item = input.take();
+                if (item == END) {
+                    // Leave the marker for the other workers, they only see it once this one took it
+                    if (running.get() > 1) {
+                        input.put(END);
+                    }
+                    break;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    worker.accept((I) item, this::emit);
+                    processed.increment();
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    logger.error("Stage {} failed on {}", name, item, e);
+                } finally {
+                    busyNanos.add(System.nanoTime() - start);
+                }
+            }
+        } catch (InterruptedException | CancellationException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                endNanos = System.nanoTime();
+                try {
+                    if (next != null) {
+                        next.close();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    private void emit(O item) {
+        if (next == null) {
+            return;
+        }
+        try {
+            next.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Stage " + name + " interrupted");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isIo() {
+        return io;
+    }
+
+    /**
+     * @return items waiting in the input queue
+     */
+    public int getQueueDepth() {
+        return input.size();
+    }
+
+    /**
+     * @return the fullest the input queue has been
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return time the workers spent on items, including waiting for the next stage to take their results
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * @return items processed per second since the stage was started
+     */
+    public double getThroughput() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return startNanos == 0 || end == startNanos ? 0 : getProcessed() * 1e9 / (end - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-9s %s x%-3d processed=%d failed=%d queue=%d max=%d %.0f/s busy=%.1f ms",
+                name, io ? "io " : "cpu", parallelism, getProcessed(), getFailed(), getQueueDepth(), getMaxQueueDepth(),
+                getThroughput(), getBusyNanos() / 1e6);
+    }
+}
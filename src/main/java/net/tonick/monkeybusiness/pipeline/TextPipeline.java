@@ -0,0 +1,359 @@
+package net.tonick.monkeybusiness.pipeline;
+
+import net.tonick.monkeybusiness.BatchExtractor;
+import net.tonick.monkeybusiness.parser.ParseCache;
+import net.tonick.monkeybusiness.parser.Script;
+import net.tonick.monkeybusiness.parser.ScriptExtractor;
+import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import net.tonick.monkeybusiness.util.TextBeautifier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Text extraction of many game files as a staged pipeline: read → decode → discover → parse → beautify → write.
+ * <p>
+ * The stages are connected by bounded queues, so disk reads, parsing and output of different files overlap.
+ * Reading and writing run on virtual threads, decoding, discovering blocks, parsing and beautifying on a platform
+ * thread pool sized to their workers. Scripts travel through the pipeline one by one; the write stage puts them
+ * back into file order, so every output file is the same as a sequential run would write. The parse workers share
+ * the {@link ParseCache} of the parser, see {@link BatchExtractor}.
+ */
+public class TextPipeline {
+    private static final Logger logger = LogManager.getLogger(TextPipeline.class);
+
+    public enum Step {
+        READ,       // map the game file and load it into memory
+        DECODE,     // XOR the game file
+        DISCOVER,   // walk the block tree
+        PARSE,      // find the texts of a script
+        BEAUTIFY,   // clean up the texts
+        WRITE       // write the texts in file order
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final ScriptParser parser;
+    private final Map<Step, Integer> parallelism = new EnumMap<>(Step.class);
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private File outputDir;
+    private final List<Stage<?, ?>> stages = new ArrayList<>();
+
+    /**
+     * @param parser parser for all files, gets a {@link ParseCache} of {@link ParseCache#DEFAULT_MAX_SIZE} entries
+     *               if it has none
+     */
+    public TextPipeline(ScriptParser parser) {
+        this.parser = parser;
+        if (parser.getParseCache() == null) {
+            parser.setParseCache(new ParseCache(ParseCache.DEFAULT_MAX_SIZE, ParseCache.Eviction.LRU));
+        }
+        int cpus = Runtime.getRuntime().availableProcessors();
+        parallelism.put(Step.READ, 4);
+        parallelism.put(Step.DECODE, Math.max(1, cpus / 4));
+        parallelism.put(Step.DISCOVER, 1);
+        parallelism.put(Step.PARSE, cpus);
+        parallelism.put(Step.BEAUTIFY, Math.max(1, cpus / 2));
+        parallelism.put(Step.WRITE, 4);
+    }
+
+    /**
+     * @param workers number of workers of the step
+     */
+    public TextPipeline setParallelism(Step step, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("A step needs at least one worker");
+        }
+        parallelism.put(step, workers);
+        return this;
+    }
+
+    public int getParallelism(Step step) {
+        return parallelism.get(step);
+    }
+
+    /**
+     * @param queueCapacity size of the queue in front of every stage
+     */
+    public TextPipeline setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public ParseCache getParseCache() {
+        return parser.getParseCache();
+    }
+
+    /**
+     * @param parseCache cache shared by all files, and by everything else using the parser; null to always decode
+     */
+    public TextPipeline setParseCache(ParseCache parseCache) {
+        parser.setParseCache(parseCache);
+        return this;
+    }
+
+    /**
+     * @param outputDir directory for the text files, null to write them next to the game files
+     */
+    public TextPipeline setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+        return this;
+    }
+
+    /**
+     * @return the stages of the last run, for queue depth and throughput
+     */
+    public List<Stage<?, ?>> getStages() {
+        return stages;
+    }
+
+    /**
+     * Run all files through the pipeline
+     *
+     * @return per file results in input order and the totals
+     */
+    public BatchExtractor.Summary run(List<File> gameFiles) {
+        Map<File, File> outputs = BatchExtractor.outputFiles(gameFiles, outputDir);
+
+        Stage<Job, Unit<ByteBuffer>> read = stage(Step.READ, true, this::read);
+        Stage<Unit<ByteBuffer>, Unit<ByteBuffer>> decode = stage(Step.DECODE, false, this::decode);
+        Stage<Unit<ByteBuffer>, Unit<Script>> discover = stage(Step.DISCOVER, false, this::discover);
+        Stage<Unit<Script>, Unit<List<TextRecord>>> parse = stage(Step.PARSE, false, this::parse);
+        Stage<Unit<List<TextRecord>>, Unit<List<String>>> beautify = stage(Step.BEAUTIFY, false, this::beautify);
+        Stage<Unit<List<String>>, Void> write = stage(Step.WRITE, true, this::write);
+        read.then(decode).then(discover).then(parse).then(beautify).then(write);
+
+        stages.clear();
+        stages.addAll(List.of(read, decode, discover, parse, beautify, write));
+        int cpuWorkers = stages.stream().filter(stage -> !stage.isIo()).mapToInt(Stage::getParallelism).sum();
+
+        long start = System.nanoTime();
+        List<Job> jobs = new ArrayList<>(gameFiles.size());
+        try (ExecutorService cpu = Executors.newFixedThreadPool(cpuWorkers);
+             ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            stages.forEach(stage -> stage.start(cpu, io));
+
+            for (File gameFile : gameFiles) {
+                Job job = new Job(gameFile, outputs.get(gameFile));
+                jobs.add(job);
+                read.put(job);
+            }
+            read.close();
+            write.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the pipeline", e);
+        }
+
+        List<BatchExtractor.Result> results = jobs.stream().map(Job::toResult).toList();
+        return new BatchExtractor.Summary(results, System.nanoTime() - start);
+    }
+
+    /**
+     * @return queue depth and throughput of every stage
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        stages.forEach(stage -> sb.append(stage).append(System.lineSeparator()));
+        return sb.toString();
+    }
+
+    private <I, O> Stage<I, O> stage(Step step, boolean io, BiConsumer<I, Consumer<O>> worker) {
+        return new Stage<>(step.name().toLowerCase(), parallelism.get(step), io, queueCapacity, worker);
+    }
+
+    private void read(Job job, Consumer<Unit<ByteBuffer>> next) {
+        ByteBuffer data = null;
+        try {
+            job.bytes = job.gameFile.length();
+            // Page the file in here, so the decode step doesn't wait for the disk
+            data = ScriptExtractor.mapRawFile(job.gameFile).load();
+        } catch (IOException | RuntimeException e) {
+            job.fail(e);
+        }
+        next.accept(new Unit<>(job, 0, data));
+    }
+
+    private void decode(Unit<ByteBuffer> unit, Consumer<Unit<ByteBuffer>> next) {
+        ByteBuffer data = null;
+        if (unit.payload != null) {
+            try {
+                data = ScriptExtractor.decode(unit.payload);
+            } catch (RuntimeException e) {
+                unit.job.fail(e);
+            }
+        }
+        next.accept(new Unit<>(unit.job, 0, data));
+    }
+
+    private void discover(Unit<ByteBuffer> unit, Consumer<Unit<Script>> next) {
+        Job job = unit.job;
+        List<Script> scripts = List.of();
+        if (unit.payload != null) {
+            try {
+                scripts = ScriptExtractor.extractScripts(unit.payload);
+            } catch (RuntimeException e) {
+                job.fail(e);
+            }
+        }
+
+        // Every job sends at least one unit, so the writer sees it end
+        job.scripts = scripts.size();
+        job.total = Math.max(1, scripts.size());
+        if (scripts.isEmpty()) {
+            next.accept(new Unit<>(job, 0, null));
+        }
+        for (int i = 0; i < scripts.size(); i++) {
+            next.accept(new Unit<>(job, i, scripts.get(i)));
+        }
+    }
+
+    // A step that fails on a unit fails its job and still passes on an empty unit with the same seq, so the
+    // writer gets every unit of the job and closes its output
+
+    private void parse(Unit<Script> unit, Consumer<Unit<List<TextRecord>>> next) {
+        List<TextRecord> texts = List.of();
+        try {
+            if (unit.payload != null) {
+                texts = parser.extractTexts(unit.payload);
+            }
+        } catch (RuntimeException e) {
+            unit.job.fail(e);
+        }
+        next.accept(new Unit<>(unit.job, unit.seq, texts));
+    }
+
+    private void beautify(Unit<List<TextRecord>> unit, Consumer<Unit<List<String>>> next) {
+        List<String> lines = new ArrayList<>(unit.payload.size());
+        try {
+            for (TextRecord record : unit.payload) {
+                String text = record.getText();
+                if (text != null && !text.isBlank()) {
+                    lines.add(TextBeautifier.beautify(text));
+                }
+            }
+            unit.job.texts.addAndGet(unit.payload.size());
+        } catch (RuntimeException e) {
+            unit.job.fail(e);
+            lines = List.of();
+        }
+        next.accept(new Unit<>(unit.job, unit.seq, lines));
+    }
+
+    private void write(Unit<List<String>> unit, Consumer<Void> next) {
+        Job job = unit.job;
+        synchronized (job) {
+            job.pending.put(unit.seq, unit.payload);
+            List<String> lines;
+            while ((lines = job.pending.remove(job.written)) != null) {
+                // Once the job failed the remaining units are only counted
+                if (job.error == null) {
+                    try {
+                        if (job.writer == null) {
+                            Files.createDirectories(job.outputFile.getAbsoluteFile().getParentFile().toPath());
+                            job.writer = Files.newBufferedWriter(job.outputFile.toPath(), StandardCharsets.UTF_8);
+                        }
+                        for (String line : lines) {
+                            job.writer.write(line);
+                            job.writer.newLine();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        job.fail(e);
+                    }
+                }
+                job.written++;
+            }
+            if (job.written == job.total) {
+                job.finish();
+            }
+        }
+    }
+
+    /**
+     * Item travelling through the pipeline: a part of a job and its position within the job
+     */
+    private static final class Unit<T> {
+        private final Job job;
+        private final int seq;
+        private final T payload;
+
+        private Unit(Job job, int seq, T payload) {
+            this.job = job;
+            this.seq = seq;
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return job.gameFile + "#" + seq;
+        }
+    }
+
+    /**
+     * A game file and the state of its output
+     */
+    private static final class Job {
+        private final File gameFile;
+        private final File outputFile;
+        private final long start = System.nanoTime();
+        private final AtomicInteger texts = new AtomicInteger();
+        private final Map<Integer, List<String>> pending = new HashMap<>();
+        private volatile long bytes;
+        private volatile int scripts;
+        private volatile int total = -1;
+        private volatile Exception error;
+        private BufferedWriter writer;
+        private int written;
+        private long end;
+
+        private Job(File gameFile, File outputFile) {
+            this.gameFile = gameFile;
+            this.outputFile = outputFile;
+        }
+
+        private synchronized void fail(Exception e) {
+            logger.error("Failed to process {}", gameFile, e);
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        /**
+         * Called by the writer once all units are written
+         */
+        private synchronized void finish() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            end = System.nanoTime();
+        }
+
+        private synchronized BatchExtractor.Result toResult() {
+            // A job the pipeline didn't finish, e.g. after an interrupt, counts until now
+            long nanos = (end != 0 ? end : System.nanoTime()) - start;
+            return new BatchExtractor.Result(gameFile, outputFile, bytes, error == null ? scripts : 0,
+                    error == null ? texts.get() : 0, nanos, error);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package net.tonick.monkeybusiness.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Finds all occurrences of several byte patterns in a single pass over the data.
+ * <p>
+ * The patterns are compiled once into a dense automaton (256 transitions per state), so a scan costs one table
+ * lookup per byte however many patterns there are, and the matcher can be shared between threads. As with
+ * {@link KnuthMorrisPratt}, '*' matches any byte: the longest run of a pattern without wildcards goes into the
+ * automaton and the rest of the pattern is checked around every hit.
+ * <p>
+ * A scan of [start, stop) reports the matches starting in that range and reads up to {@link #getMaxLength()} - 1
+ * bytes beyond it, so adjacent ranges can be scanned independently without losing or duplicating matches on their
+ * boundaries, see {@link #findAll(ByteBuffer, int, int)}.
+ */
+public class AhoCorasick {
+    public static final byte WILDCARD = '*';
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private final byte[][] patterns;
+    private final int maxLength;
+
+    // Per pattern: where its run without wildcards ends and whether there is anything else to check
+    private final int[] keyEnds;
+    private final boolean[] hasWildcards;
+
+    // Transition of state s on byte b at s * 256 + b, state 0 is the root
+    private final int[] transitions;
+    // Patterns whose key ends in a state, including those of its suffixes
+    private final int[][] outputs;
+
+    /**
+     * Compile the patterns
+     *
+     * @param patterns byte patterns, '*' matches any byte, a pattern needs at least one other byte
+     */
+    public AhoCorasick(byte[]... patterns) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("At least one pattern is needed");
+        }
+        this.patterns = patterns.clone();
+        this.keyEnds = new int[patterns.length];
+        this.hasWildcards = new boolean[patterns.length];
+
+        int maxLength = 0;
+        int maxStates = 1;
+        int[] keyOffsets = new int[patterns.length];
+        for (int p = 0; p < patterns.length; p++) {
+            byte[] pattern = patterns[p];
+            maxLength = Math.max(maxLength, pattern.length);
+            findKey(p, pattern, keyOffsets);
+            if (keyEnds[p] == keyOffsets[p]) {
+                throw new IllegalArgumentException("Pattern " + p + " consists of wildcards only");
+            }
+            maxStates += keyEnds[p] - keyOffsets[p];
+        }
+        this.maxLength = maxLength;
+
+        // Trie of the keys
+        int[] trie = new int[maxStates * 256];
+        Arrays.fill(trie, -1);
+        List<List<Integer>> matches = new ArrayList<>();
+        matches.add(new ArrayList<>());
+        int states = 1;
+        for (int p = 0; p < patterns.length; p++) {
+            int state = 0;
+            for (int i = keyOffsets[p]; i < keyEnds[p]; i++) {
+                int slot = state * 256 + (patterns[p][i] & 0xFF);
+                if (trie[slot] < 0) {
+                    trie[slot] = states++;
+                    matches.add(new ArrayList<>());
+                }
+                state = trie[slot];
+            }
+            matches.get(state).add(p);
+        }
+
+        // Breadth first, so the failure state of every state is complete before it is used
+        transitions = Arrays.copyOf(trie, states * 256);
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int b = 0; b < 256; b++) {
+            if (transitions[b] < 0) {
+                transitions[b] = 0;
+            } else {
+                queue.add(transitions[b]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matches.get(state).addAll(matches.get(failure[state]));
+            for (int b = 0; b < 256; b++) {
+                int slot = state * 256 + b;
+                int fallback = transitions[failure[state] * 256 + b];
+                if (transitions[slot] < 0) {
+                    transitions[slot] = fallback;
+                } else {
+                    failure[transitions[slot]] = fallback;
+                    queue.add(transitions[slot]);
+                }
+            }
+        }
+
+        outputs = new int[states][];
+        for (int state = 0; state < states; state++) {
+            List<Integer> output = matches.get(state);
+            outputs[state] = output.isEmpty() ? null : output.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Pick the longest run without wildcards of a pattern
+     */
+    private void findKey(int p, byte[] pattern, int[] keyOffsets) {
+        int run = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] == WILDCARD) {
+                hasWildcards[p] = true;
+                run = 0;
+                continue;
+            }
+            run++;
+            if (run > keyEnds[p] - keyOffsets[p]) {
+                keyOffsets[p] = i - run + 1;
+                keyEnds[p] = i + 1;
+            }
+        }
+    }
+
+    public int getPatternCount() {
+        return patterns.length;
+    }
+
+    public byte[] getPattern(int pattern) {
+        return patterns[pattern].clone();
+    }
+
+    /**
+     * @return length of the longest pattern, a scan reads this many bytes minus one beyond its range
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Receives matches as they are found, ordered by the end of the run without wildcards they were found by
+     */
+    @FunctionalInterface
+    public interface MatchSink {
+        /**
+         * @param pattern index of the pattern
+         * @param index   absolute index of the first byte of the match
+         */
+        void accept(int pattern, int index);
+    }
+
+    /**
+     * Report all matches starting in [start, stop). Uses absolute indices, the buffer's position is not touched.
+     */
+    public void scan(ByteBuffer data, int start, int stop, MatchSink sink) {
+        int limit = data.limit();
+        int end = (int) Math.min(limit, (long) stop + maxLength - 1);
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = transitions[state * 256 + (data.get(i) & 0xFF)];
+            int[] output = outputs[state];
+            if (output == null) {
+                continue;
+            }
+            for (int p : output) {
+                // i is the last byte of the key
+                int index = i - keyEnds[p] + 1;
+                if (index >= start && index < stop && index + patterns[p].length <= limit
+                        && (!hasWildcards[p] || matchesAt(data, p, index))) {
+                    sink.accept(p, index);
+                }
+            }
+        }
+    }
+
+    private boolean matchesAt(ByteBuffer data, int p, int index) {
+        byte[] pattern = patterns[p];
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] != WILDCARD && pattern[i] != data.get(index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return all matches in the data, ordered by index and pattern
+     */
+    public List<Match> findAll(ByteBuffer data) {
+        return findRange(data, 0, data.limit());
+    }
+
+    /**
+     * @return all matches starting in [start, stop), ordered by index and pattern
+     */
+    public List<Match> findRange(ByteBuffer data, int start, int stop) {
+        List<Match> matches = new ArrayList<>();
+        scan(data, start, stop, (pattern, index) -> matches.add(new Match(pattern, index)));
+        matches.sort(Match.ORDER);
+        return matches;
+    }
+
+    /**
+     * Scan chunks of {@link #DEFAULT_CHUNK_SIZE} bytes in parallel, see {@link #findAll(ByteBuffer, int, int)}
+     */
+    public List<Match> findAll(ByteBuffer data, int parallelism) {
+        return findAll(data, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Scan the data in chunks on a dedicated fork-join pool. Every chunk reports the matches starting in it, so
+     * the result is the same as {@link #findAll(ByteBuffer)}.
+     *
+     * @param parallelism number of worker threads, 1 scans on the calling thread
+     * @param chunkSize   bytes per chunk
+     * @return all matches, ordered by index and pattern
+     */
+    public List<Match> findAll(ByteBuffer data, int parallelism, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        int limit = data.limit();
+        if (parallelism <= 1 || limit <= chunkSize) {
+            return findAll(data);
+        }
+
+        int chunks = (int) (((long) limit + chunkSize - 1) / chunkSize);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> IntStream.range(0, chunks).parallel()
+                    .mapToObj(chunk -> {
+                        int start = chunk * chunkSize;
+                        return findRange(data, start, (int) Math.min(limit, (long) start + chunkSize));
+                    })
+                    .flatMap(List::stream)
+                    .toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Occurrence of a pattern
+     */
+    public static class Match {
+        static final Comparator<Match> ORDER = Comparator.comparingInt(Match::getIndex).thenComparingInt(Match::getPattern);
+
+        private final int pattern;
+        private final int index;
+
+        public Match(int pattern, int index) {
+            this.pattern = pattern;
+            this.index = index;
+        }
+
+        /**
+         * @return index of the pattern in the order it was compiled
+         */
+        public int getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return absolute index of the first byte
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Match match && match.pattern == pattern && match.index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * pattern + index;
+        }
+
+        @Override
+        public String toString() {
+            return pattern + "@" + String.format("%08X", index);
+        }
+    }
+}
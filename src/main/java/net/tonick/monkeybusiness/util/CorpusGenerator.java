@@ -0,0 +1,331 @@
+package net.tonick.monkeybusiness.util;
+
+import net.tonick.monkeybusiness.parser.BlockWalker;
+import net.tonick.monkeybusiness.parser.GameIndex;
+import net.tonick.monkeybusiness.parser.ScriptExtractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Builds synthetic Scumm v5 games (data and index file) for load tests and benchmarks.
+ * <p>
+ * The games follow the real block layout (LECF -> LOFF, LFLF -> ROOM -> OBCD/EXCD/ENCD/LSCR, SCRP) and only use
+ * opcode encodings the parser understands, so every generated script parses without errors. Generation is
+ * deterministic for a given seed.
+ */
+public class CorpusGenerator {
+    private static final Charset CP850 = Charset.forName("IBM850");
+    private static final String[] WORDS = {
+            "I", "you", "pirate", "grog", "monkey", "island", "sword", "fight", "look", "behind", "three-headed",
+            "Guybrush", "Threepwood", "mighty", "ghost", "LeChuck", "treasure", "map", "rubber", "chicken", "pulley",
+            "Melee", "Governor", "Elaine", "Marley", "Stan", "boat", "ship", "crew", "insult", "fish", "milk", "money"
+    };
+
+    private int rooms = 10;
+    private int scriptsPerRoom = 5;
+    private int instructionsPerScript = 50;
+    private double textDensity = 0.2;
+    private long seed = 42;
+
+    private SplittableRandom random;
+    private int scriptCount;
+    private int textCount;
+
+    public CorpusGenerator setRooms(int rooms) {
+        if (rooms < 1 || rooms >= ScriptExtractor.MAX_ROOMS) {
+            throw new IllegalArgumentException("rooms must be between 1 and " + (ScriptExtractor.MAX_ROOMS - 1));
+        }
+        this.rooms = rooms;
+        return this;
+    }
+
+    /**
+     * Number of global and of local scripts per room each, every room also gets one entry, exit and verb script
+     */
+    public CorpusGenerator setScriptsPerRoom(int scriptsPerRoom) {
+        this.scriptsPerRoom = scriptsPerRoom;
+        return this;
+    }
+
+    public CorpusGenerator setInstructionsPerScript(int instructionsPerScript) {
+        this.instructionsPerScript = instructionsPerScript;
+        return this;
+    }
+
+    /**
+     * @param textDensity share of instructions that carry text (Print, PrintEgo, StringOps, VerbOps), 0..1
+     */
+    public CorpusGenerator setTextDensity(double textDensity) {
+        this.textDensity = textDensity;
+        return this;
+    }
+
+    public CorpusGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @return number of script blocks in the last generated game
+     */
+    public int getScriptCount() {
+        return scriptCount;
+    }
+
+    /**
+     * @return number of text-bearing instructions in the last generated game
+     */
+    public int getTextCount() {
+        return textCount;
+    }
+
+    /**
+     * Write the XOR'ed data file and its index (".000") next to it
+     *
+     * @param dataFile e.g. "synthetic.001"
+     */
+    public void write(File dataFile) throws IOException {
+        byte[][] game = generate();
+        Files.write(dataFile.toPath(), encode(game[0]));
+
+        String name = dataFile.getName();
+        int dot = name.lastIndexOf('.');
+        File indexFile = new File(dataFile.getAbsoluteFile().getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".000");
+        Files.write(indexFile.toPath(), encode(game[1]));
+    }
+
+    /**
+     * @return decoded data file and index file contents
+     */
+    public byte[][] generate() {
+        random = new SplittableRandom(seed);
+        scriptCount = 0;
+        textCount = 0;
+
+        List<byte[]> lflfs = new ArrayList<>();
+        List<Integer> globalRooms = new ArrayList<>();
+        List<Integer> globalOffsets = new ArrayList<>();
+
+        for (int room = 1; room <= rooms; room++) {
+            List<byte[]> roomChildren = new ArrayList<>();
+            roomChildren.add(block("RMHD", new byte[]{0x40, 0x01, (byte) 0xC8, 0x00, 0x00, 0x00}));
+            byte[] verb = block("VERB", concat(new byte[]{1, 12, 0, 0}, code()));
+            roomChildren.add(block("OBCD", block("CDHD", new byte[4]), verb, block("OBNA", text())));
+            roomChildren.add(block("EXCD", code()));
+            roomChildren.add(block("ENCD", code()));
+            for (int i = 0; i < scriptsPerRoom; i++) {
+                roomChildren.add(block("LSCR", concat(new byte[]{(byte) (200 + i)}, code())));
+            }
+            scriptCount += 3 + scriptsPerRoom;
+
+            byte[] roomBlock = block(BlockWalker.ROOM, roomChildren.toArray(new byte[0][]));
+            List<byte[]> lflfChildren = new ArrayList<>();
+            lflfChildren.add(roomBlock);
+
+            // Global script offsets are relative to the ROOM block
+            int offset = roomBlock.length;
+            for (int i = 0; i < scriptsPerRoom; i++) {
+                byte[] script = block(ScriptExtractor.SCRP, code());
+                globalRooms.add(room);
+                globalOffsets.add(offset);
+                lflfChildren.add(script);
+                offset += script.length;
+            }
+            scriptCount += scriptsPerRoom;
+
+            lflfs.add(block(BlockWalker.LFLF, lflfChildren.toArray(new byte[0][])));
+        }
+
+        // LOFF: room count, then room number and absolute ROOM offset per room
+        ByteBuffer loff = ByteBuffer.allocate(1 + 5 * rooms).order(ByteOrder.LITTLE_ENDIAN);
+        loff.put((byte) rooms);
+        int position = BlockWalker.HEADER_LENGTH + BlockWalker.HEADER_LENGTH + loff.capacity();
+        for (int room = 1; room <= rooms; room++) {
+            loff.put((byte) room).putInt(position + BlockWalker.HEADER_LENGTH);
+            position += lflfs.get(room - 1).length;
+        }
+
+        List<byte[]> lecfChildren = new ArrayList<>();
+        lecfChildren.add(block(BlockWalker.LOFF, loff.array()));
+        lecfChildren.addAll(lflfs);
+        byte[] data = block(BlockWalker.LECF, lecfChildren.toArray(new byte[0][]));
+
+        return new byte[][]{data, index(globalRooms, globalOffsets)};
+    }
+
+    private byte[] index(List<Integer> globalRooms, List<Integer> globalOffsets) {
+        ByteBuffer droo = ByteBuffer.allocate(2 + 5 * (rooms + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        droo.putShort((short) (rooms + 1));
+        droo.put((byte) 0);
+        for (int room = 1; room <= rooms; room++) {
+            droo.put((byte) 1);
+        }
+        for (int room = 0; room <= rooms; room++) {
+            droo.putInt(0);
+        }
+
+        // Script 0 does not exist
+        int count = globalRooms.size() + 1;
+        ByteBuffer dscr = ByteBuffer.allocate(2 + 5 * count).order(ByteOrder.LITTLE_ENDIAN);
+        dscr.putShort((short) count);
+        dscr.put((byte) 0);
+        globalRooms.forEach(room -> dscr.put(room.byteValue()));
+        dscr.putInt(0);
+        globalOffsets.forEach(dscr::putInt);
+
+        return concat(block(GameIndex.DROO, droo.array()), block(GameIndex.DSCR, dscr.array()));
+    }
+
+    private byte[] code() {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        for (int i = 0; i < instructionsPerScript; i++) {
+            if (random.nextDouble() < textDensity) {
+                textInstruction(code);
+            } else {
+                instruction(code);
+            }
+        }
+        // StopObjectCode
+        code.write(0xA0);
+        return code.toByteArray();
+    }
+
+    private void instruction(ByteArrayOutputStream code) {
+        switch (random.nextInt(14)) {
+            // PutActor: actor, x, y
+            case 0 -> code.writeBytes(new byte[]{0x01, randomByte(), randomByte(), 0, randomByte(), 0});
+            // StartSound
+            case 1 -> code.writeBytes(new byte[]{0x1C, randomByte()});
+            // LoadRoom
+            case 2 -> code.writeBytes(new byte[]{0x72, (byte) (1 + random.nextInt(rooms))});
+            // Move: result variable, value
+            case 3 -> code.writeBytes(new byte[]{0x1A, randomByte(), 0, randomByte(), 0});
+            // BreakHere
+            case 4 -> code.write(0x80);
+            // Delay: 24 bit
+            case 5 -> code.writeBytes(new byte[]{0x2E, randomByte(), randomByte(), 0});
+            // JumpRelative
+            case 6 -> code.writeBytes(new byte[]{0x18, 0, 0});
+            // IsEqual: variable, value, jump target
+            case 7 -> code.writeBytes(new byte[]{0x48, randomByte(), 0, randomByte(), 0, 4, 0});
+            // SetState: object, state
+            case 8 -> code.writeBytes(new byte[]{0x07, randomByte(), 1, 1});
+            // CutScene with empty argument list, EndCutScene
+            case 9 -> code.writeBytes(new byte[]{0x40, (byte) 0xFF, (byte) 0xC0});
+            // StartScript without arguments
+            case 10 -> code.writeBytes(new byte[]{0x0A, randomByte(), (byte) 0xFF});
+            // Increment variable
+            case 11 -> code.writeBytes(new byte[]{0x46, randomByte(), 0});
+            // CursorCommand: cursor on
+            case 12 -> code.writeBytes(new byte[]{0x2C, 0x01});
+            // Expression: result, push value, end
+            default -> code.writeBytes(new byte[]{(byte) 0xAC, randomByte(), 0, 0x01, randomByte(), (byte) 0xFF});
+        }
+    }
+
+    private void textInstruction(ByteArrayOutputStream code) {
+        textCount++;
+        switch (random.nextInt(4)) {
+            // Print: actor, position, color, text
+            case 0 -> {
+                code.writeBytes(new byte[]{0x14, (byte) random.nextInt(10), 0x00, 0x40, 0, 0x20, 0, 0x01, 0x0F, 0x0F});
+                code.writeBytes(text());
+            }
+            // PrintEgo: text
+            case 1 -> {
+                code.writeBytes(new byte[]{(byte) 0xD8, 0x0F});
+                code.writeBytes(text());
+            }
+            // StringOps: load string
+            case 2 -> {
+                code.writeBytes(new byte[]{0x27, 0x01, randomByte()});
+                code.writeBytes(text());
+            }
+            // VerbOps: verb name
+            default -> {
+                code.writeBytes(new byte[]{0x7A, randomByte(), 0x02});
+                code.writeBytes(text());
+                code.write(0xFF);
+            }
+        }
+    }
+
+    /**
+     * @return 0x00 terminated CP850 text with the occasional wait or variable escape
+     */
+    private byte[] text() {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        int words = 1 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.write(' ');
+            }
+            text.writeBytes(WORDS[random.nextInt(WORDS.length)].getBytes(CP850));
+            int escape = random.nextInt(20);
+            if (escape == 0) {
+                text.writeBytes(new byte[]{(byte) 0xFF, 0x03});
+            } else if (escape == 1) {
+                text.writeBytes(new byte[]{(byte) 0xFF, 0x04, randomByte(), 0});
+            }
+        }
+        text.write(0);
+        return text.toByteArray();
+    }
+
+    private byte randomByte() {
+        // Keep clear of 0xFF, which terminates argument lists
+        return (byte) random.nextInt(0x7F);
+    }
+
+    private static byte[] block(String tag, byte[]... children) {
+        int length = BlockWalker.HEADER_LENGTH;
+        for (byte[] child : children) {
+            length += child.length;
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(length);
+        block.put(tag.getBytes(CP850));
+        block.putInt(length);
+        for (byte[] child : children) {
+            block.put(child);
+        }
+        return block.array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] ^= ScriptExtractor.XOR_KEY;
+        }
+        return bytes;
+    }
+
+    /**
+     * Usage: {@code CorpusGenerator <data file> [rooms] [scripts per room] [instructions per script] [text density]}
+     */
+    public static void main(String... args) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        if (args.length > 1) generator.setRooms(Integer.parseInt(args[1]));
+        if (args.length > 2) generator.setScriptsPerRoom(Integer.parseInt(args[2]));
+        if (args.length > 3) generator.setInstructionsPerScript(Integer.parseInt(args[3]));
+        if (args.length > 4) generator.setTextDensity(Double.parseDouble(args[4]));
+        generator.write(new File(args[0]));
+        System.out.printf("%d scripts, %d texts%n", generator.getScriptCount(), generator.getTextCount());
+    }
+}
@@ -4,50 +4,232 @@ import net.tonick.monkeybusiness.opcodes.ITextContainer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cleans up extracted texts: Scumm control characters, whitespace, ellipses and language specific replacement rules.
+ * <p>
+ * Replacement rules are compiled once into a trie and applied in a single pass over the text, at each position the
+ * longest matching rule wins. The default instance uses the German rules from {@code beautifier/de.rules}.
+ */
 public class TextBeautifier {
     private static final Logger logger = LogManager.getLogger(TextBeautifier.class);
 
-    public static String beautify(String input) {
-        if(input == null) {
-            return null;
+    public static final String RULE_SEPARATOR = " => ";
+    private static final char ELLIPSIS = '…';
+    private static final char NBSP = 0xA0;
+    private static final TextBeautifier DEFAULT = fromResource("/beautifier/de.rules");
+
+    private final Node rules = new Node();
+
+    public TextBeautifier(Map<String, String> rules) {
+        rules.forEach(this::addRule);
+    }
+
+    /**
+     * Load rules from a file, one {@code <text> => <replacement>} per line, lines starting with '#' are comments
+     */
+    public static TextBeautifier load(Path rules) throws IOException {
+        try (InputStream in = Files.newInputStream(rules)) {
+            return new TextBeautifier(readRules(in));
         }
+    }
+
+    public static TextBeautifier fromResource(String resource) {
+        try (InputStream in = TextBeautifier.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Rule resource " + resource + " not found");
+            }
+            return new TextBeautifier(readRules(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        byte[] cp850s = input.getBytes();
-        String p0 = HexPrettyPrinter.hexStack(cp850s);
-        logger.trace("\n{}", p0);
-
-        return input
-                .replaceAll("\\x0F", "™")
-                .replaceAll("\\u0003", " ")
-                .replaceAll("\\x5E", "…")
-                .replaceAll("\\s+", " ")
-                .replaceAll("\\u00A0", "")
-                .replaceAll("daß ", "dass ")
-                .replaceAll("Daß ", "Dass ")
-                .replaceAll("muß", "muss")
-                .replaceAll("Muß", "Muss")
-                .replaceAll("müß", "müss")
-                .replaceAll("wuß", "wuss")
-                .replaceAll("wüß", "wüss")
-                .replaceAll("laß", "lass")
-                .replaceAll("läßt", "lässt")
-                .replaceAll("Paß", "Pass")
-                .replaceAll("paß", "pass")
-                .replaceAll("verpaßte", "verpasste")
-                .replaceAll("ergiß", "ergiss")
-                .replaceAll("häßlich", "hässlich")
-                .replaceAll("Abschluß", "Abschluss")
-                .replaceAll("Streß", "Stress")
-                .replaceAll("vergeßt", "vergesst")
-                .replaceAll("bißchen", "bisschen")
-                .replaceAll("frißt", "frisst")
-                .replaceAll("Kuß", "Kuss")
-                .replaceAll("Küß", "Küss")
-                .replaceAll("häßlich", "hässlich")
-                .replaceAll("…[^\\p{Graph}]+…", " … ");
+    private static Map<String, String> readRules(InputStream in) throws IOException {
+        Map<String, String> rules = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int separator = line.indexOf(RULE_SEPARATOR);
+            if (line.startsWith("#") || separator <= 0) {
+                continue;
+            }
+            rules.put(line.substring(0, separator), line.substring(separator + RULE_SEPARATOR.length()));
+        }
+        return rules;
+    }
+
+    private void addRule(String text, String replacement) {
+        Node node = rules;
+        for (int i = 0; i < text.length(); i++) {
+            node = node.getOrAdd(text.charAt(i));
+        }
+        node.replacement = replacement;
+    }
+
+    public static String beautify(String input) {
+        return DEFAULT.apply(input);
     }
 
     public static String beautify(ITextContainer container) {
         return beautify(container.getText());
     }
+
+    public String apply(String input) {
+        if (input == null) {
+            return null;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("\n{}", HexPrettyPrinter.hexStack(input.getBytes()));
+        }
+
+        return replaceEllipses(replaceRules(normalize(input)));
+    }
+
+    /**
+     * Map Scumm control characters, collapse whitespace runs to a single space and drop non-breaking spaces.
+     * A non-breaking space ends a whitespace run, so "a   b" keeps both spaces.
+     */
+    private static String normalize(String input) {
+        StringBuilder out = new StringBuilder(input.length());
+        boolean whitespace = false;
+        for (int i = 0; i < input.length(); i++) {
+            char c = switch (input.charAt(i)) {
+                case '\u000F' -> '™';
+                case '\u0003' -> ' ';
+                case '^' -> ELLIPSIS;
+                default -> input.charAt(i);
+            };
+
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                if (!whitespace) {
+                    out.append(' ');
+                }
+                whitespace = true;
+            } else {
+                if (c != NBSP) {
+                    out.append(c);
+                }
+                whitespace = false;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Replace the longest rule matching at each position, continuing behind the replaced text
+     */
+    private String replaceRules(String input) {
+        StringBuilder out = null;
+        int copied = 0;
+        for (int i = 0; i < input.length(); ) {
+            Node node = rules.get(input.charAt(i));
+            Node match = null;
+            int matchEnd = i;
+            for (int j = i + 1; node != null; j++) {
+                if (node.replacement != null) {
+                    match = node;
+                    matchEnd = j;
+                }
+                node = j < input.length() ? node.get(input.charAt(j)) : null;
+            }
+
+            if (match == null) {
+                i++;
+                continue;
+            }
+
+            if (out == null) {
+                out = new StringBuilder(input.length() + 16);
+            }
+            out.append(input, copied, i).append(match.replacement);
+            i = copied = matchEnd;
+        }
+
+        if (out == null) {
+            return input;
+        }
+        return out.append(input, copied, input.length()).toString();
+    }
+
+    /**
+     * Replace "…", anything but printable ASCII, "…" by " … ". Like the greedy regex "…[^\p{Graph}]+…",
+     * a match extends to the last ellipsis of the run.
+     */
+    private static String replaceEllipses(String input) {
+        int first = input.indexOf(ELLIPSIS);
+        if (first < 0 || input.indexOf(ELLIPSIS, first + 1) < 0) {
+            return input;
+        }
+
+        StringBuilder out = new StringBuilder(input.length());
+        out.append(input, 0, first);
+        for (int i = first; i < input.length(); ) {
+            char c = input.charAt(i);
+            if (c == ELLIPSIS) {
+                int end = i + 1;
+                int last = -1;
+                while (end < input.length() && !isGraph(input.charAt(end))) {
+                    if (input.charAt(end) == ELLIPSIS && end > i + 1) {
+                        last = end;
+                    }
+                    end++;
+                }
+                if (last > 0) {
+                    out.append(" … ");
+                    i = last + 1;
+                    continue;
+                }
+            }
+            out.append(c);
+            i++;
+        }
+        return out.toString();
+    }
+
+    private static boolean isGraph(char c) {
+        return c > 0x20 && c < 0x7F;
+    }
+
+    /**
+     * Trie node, children are kept in plain arrays to avoid boxing chars on lookup
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private String replacement;
+
+        private Node get(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private Node getOrAdd(char c) {
+            Node child = get(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
 }
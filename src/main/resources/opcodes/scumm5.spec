@@ -0,0 +1,119 @@
+# Scumm v5 opcodes, one line per base opcode:
+#
+#   <opcode> <parameter bits> <opcode class> <operands...>
+#
+# The parameter bits (0x80, 0x40, 0x20 or '-') are expanded into all opcode variants. The operands are decoded in order:
+#
+#   byte1..3, word1..3  getVarOrDirectByte / getVarOrDirectWord, a variable if PARAM_1..3 is set in the opcode
+#   result              variable the result is stored in
+#   var                 variable
+#   target              jump target
+#   vararg              0xFF terminated list of variable or direct words
+#   u8, u16, u24        plain 8, 16 or 24 bit values
+#   skiptext            0x00 terminated message that is not kept
+#   custom              hand written parser in ScriptParser, e.g. for opcodes with sub-opcodes or texts
+#   unsupported         not implemented yet, decoding stops with an error
+#   (nothing)           no operands
+
+00  -   StopObjectCode
+01  E0  PutActor               byte1 word2 word3
+02  80  StartMusic             byte1
+03  80  GetActorRoom           result byte1
+04  80  IsGreaterEqual         var word1 target
+05  80  DrawObject             custom
+06  80  GetActorElevation      result byte1
+07  C0  SetState               word1 byte2
+08  80  IsNotEqual             var word1 target
+09  C0  FaceActor              byte1 word2
+0A  E0  StartScript            byte1 vararg
+0B  C0  GetVerbEntryPoint      u16 u16 u16
+0C  80  ResourceRoutines       custom
+0D  C0  WalkActorToActor       byte1 byte2 u8
+0E  C0  PutActorAtObject       byte1 word2
+0F  80  GetObjectState         result word1
+10  80  GetObjectOwner         result word1
+11  C0  AnimateActor           byte1 byte2
+12  80  PanCameraTo            word1
+13  C0  ActorOps               custom
+14  80  Print                  custom
+15  C0  ActorFromPos           result word1 word2
+16  80  GetRandomNumber        result byte1
+17  80  And                    unsupported
+18  -   JumpRelative           target
+19  E0  DoSentence             custom
+1A  80  Move                   result word1
+1B  80  Multiply               result word1
+1C  80  StartSound             byte1
+1D  80  IfClassOfIs            word1 vararg result
+1E  E0  WalkActorTo            byte1 word2 word3
+1F  C0  IsActorInBox           byte1 byte2
+20  -   StopMusic
+22  80  GetAnimCounter         unsupported
+23  80  GetActorY              u16 u16
+24  C0  LoadRoomWithEgo        word1 byte2 u16 u16
+25  C0  PickupObject           word1 byte2
+26  80  SetVarRange            custom
+27  -   StringOps              custom
+28  -   EqualZero              var target
+29  C0  SetOwnerOf             word1 byte2
+2B  -   DelayVariable          var
+2C  -   CursorCommand          custom
+2D  C0  PutActorInRoom         byte1 byte2
+2E  -   Delay                  u24
+30  80  MatrixOp               custom
+31  80  GetInventoryCount      result byte1
+32  80  SetCameraAt            word1
+33  C0  RoomOps                custom
+34  C0  GetDist                result word1 word2
+35  C0  FindObject             result byte1 byte2
+36  C0  WalkActorToObject      byte1 word2
+37  C0  StartObject            word1 byte2 vararg
+38  80  LessOrEqual            var word1 target
+3A  80  Subtract               result word1
+3B  80  GetActorScale          result byte1
+3C  80  StopSound              byte1
+3D  C0  FindInventory          result byte1 byte2
+3F  C0  DrawBox                word1 word2 u8 word1 word2 byte3
+40  -   CutScene               vararg
+42  80  ChainScript            byte1 vararg
+43  80  GetActorX              u16 u16
+44  80  IsLess                 var word1 target
+46  -   Increment              result
+48  80  IsEqual                var word1 target
+4C  -   SoundKludge            vararg
+52  80  ActorFollowCamera      byte1
+54  80  SetObjectName          word1 skiptext
+56  80  GetActorMoving         result byte1
+57  80  Or                     unsupported
+58  -   OverRide               u8
+5A  80  Add                    result word1
+5B  80  Divide                 result word1
+5D  80  ActorSetClass          word1 vararg
+60  80  FreezeScripts          byte1
+62  80  StopScript             byte1
+63  80  GetActorFacing         result byte1
+66  80  GetClosestObjActor     unsupported
+67  80  GetStringWidth         unsupported
+68  80  GetScriptRunning       result byte1
+6B  80  Debug                  word1
+6C  80  GetActorWidth          result byte1
+6E  80  StopObjectScript       byte1
+70  80  Lights                 byte1 u8 u8
+71  80  GetActorCostume        result byte1
+72  80  LoadRoom               byte1
+78  80  IsGreater              var word1 target
+7A  80  VerbOps                custom
+7B  80  GetActorWalkBox        result byte1
+7C  80  IsSoundRunning         result byte1
+80  -   BreakHere
+98  -   SystemOps              u8
+A0  -   StopObjectCode
+A7  -   Dummy                  unsupported
+A8  -   NotEqualZero           var target
+AB  -   SaveRestoreVerbs       custom
+AC  -   Expression             custom
+AE  -   Wait                   custom
+C0  -   EndCutScene
+C6  -   Decrement              result
+CC  -   PseudoRoom             custom
+D8  -   PrintEgo               custom
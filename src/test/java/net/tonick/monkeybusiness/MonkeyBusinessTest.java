@@ -1,10 +1,34 @@
 package net.tonick.monkeybusiness;
 
 import net.tonick.monkeybusiness.opcodes.*;
+import net.tonick.monkeybusiness.output.BinaryRecordWriter;
+import net.tonick.monkeybusiness.output.RecordWriter;
+import net.tonick.monkeybusiness.output.TsvRecordWriter;
+import net.tonick.monkeybusiness.parser.BlockWalker;
+import net.tonick.monkeybusiness.parser.GameIndex;
+import net.tonick.monkeybusiness.parser.GameSnapshot;
+import net.tonick.monkeybusiness.parser.PackedScript;
+import net.tonick.monkeybusiness.parser.ParseCache;
+import net.tonick.monkeybusiness.parser.ParseDiagnostics;
+import net.tonick.monkeybusiness.parser.ParseContext;
 import net.tonick.monkeybusiness.parser.Script;
 import net.tonick.monkeybusiness.parser.ScriptExtractor;
 import net.tonick.monkeybusiness.parser.ScriptParser;
+import net.tonick.monkeybusiness.parser.ScriptQuery;
+import net.tonick.monkeybusiness.parser.ScriptSpliterator;
+import net.tonick.monkeybusiness.parser.ScriptVisitor;
+import net.tonick.monkeybusiness.parser.TextDecoder;
+import net.tonick.monkeybusiness.parser.TextIndex;
+import net.tonick.monkeybusiness.parser.TextRecord;
+import net.tonick.monkeybusiness.parser.TextToken;
+import net.tonick.monkeybusiness.pipeline.Stage;
+import net.tonick.monkeybusiness.pipeline.TextPipeline;
+import net.tonick.monkeybusiness.util.AhoCorasick;
+import net.tonick.monkeybusiness.util.CorpusGenerator;
+import net.tonick.monkeybusiness.util.KnuthMorrisPratt;
+import net.tonick.monkeybusiness.util.TextBeautifier;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
@@ -13,14 +37,25 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -98,6 +133,11 @@ class MonkeyBusinessTest {
 
         assertEquals(test.size(), collect.size());
         assertArrayEquals(test.toArray(), collect.toArray());
+
+        // Objects that never got their bytes
+        assertNull(new Script().getOriginalBytes());
+        assertEquals(0, new Script().getBuffer().limit());
+        assertNull(new OpCode().getOriginalBytes());
     }
 
     @Test
@@ -120,6 +160,34 @@ class MonkeyBusinessTest {
         assertEquals(0, failedScripts);
     }
 
+    @Test
+    @Order(2)
+    public void testParserOnSyntheticGameFile(@TempDir Path tempDir) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator().setRooms(12).setScriptsPerRoom(4).setTextDensity(0.3);
+        File f = tempDir.resolve("synthetic.001").toFile();
+        generator.write(f);
+
+        ScriptParser parser = new ScriptParser();
+
+        ByteBuffer bytes = ScriptExtractor.mapFile(f);
+        List<Script> scripts = ScriptExtractor.extractScripts(bytes);
+
+        long failedScripts = scripts.stream()
+                .map(parser::parse)
+                .filter(Script::hasErrors)
+                .count();
+
+        assertEquals(generator.getScriptCount(), scripts.size());
+        assertEquals(0, failedScripts);
+        assertEquals(generator.getTextCount(), parser.extractTexts(scripts, 1).size());
+
+        GameIndex index = GameIndex.forDataFile(f);
+        assertEquals(12 * 4 + 1, index.getScriptCount());
+        Script global = ScriptExtractor.readGlobalScript(bytes, index, 5);
+        assertEquals("SCRP", global.getType());
+        assertEquals(2, global.getRoom());
+    }
+
     /**
      * This is not really a test but rather a test-generator. It creates a One-OPCODE-Script for each OPCODE
      *
@@ -174,6 +242,1025 @@ class MonkeyBusinessTest {
         assertTrue(true);
     }
 
+    @Test
+    public void testMapFileMatchesReadFile(@TempDir Path tempDir) throws IOException {
+        byte[] plain = Files.readAllBytes(Paths.get("src/test/resources/script1.bin"));
+        byte[] encoded = new byte[plain.length];
+        for (int i = 0; i < plain.length; i++) {
+            encoded[i] = (byte) (plain[i] ^ ScriptExtractor.XOR_KEY);
+        }
+        Path gameFile = tempDir.resolve("script1.001");
+        Files.write(gameFile, encoded);
+
+        ByteBuffer mapped = ScriptExtractor.mapFile(gameFile.toFile());
+
+        assertTrue(mapped.isReadOnly());
+        assertEquals(ByteBuffer.wrap(ScriptExtractor.readFile(gameFile.toFile())), mapped);
+        assertEquals(ByteBuffer.wrap(plain), mapped);
+        assertEquals(1, ScriptExtractor.extractScripts(mapped).size());
+    }
+
+    @Test
+    public void testBlockWalkerFollowsContainers() throws IOException {
+        byte[] script = Files.readAllBytes(Paths.get("src/test/resources/script1.bin"));
+        byte[] scriptBody = java.util.Arrays.copyOfRange(script, 8, script.length);
+
+        // A tag inside a non-container block must not be mistaken for a script
+        byte[] decoy = block("RMHD", "SCRP\0\0\0\u0010decoy!!!".getBytes(Charset.forName("IBM850")));
+        byte[] room = block("ROOM", decoy, block("LSCR", new byte[]{(byte) 200}, scriptBody), block("OBCD", block("VERB", new byte[]{0}, scriptBody)));
+        int roomOffset = 8 + 14 + 8;
+        byte[] loff = block("LOFF", new byte[]{1, 42, (byte) roomOffset, 0, 0, 0});
+        byte[] bytes = block("LECF", loff, block("LFLF", room, script));
+
+        List<Script> scripts = ScriptExtractor.extractScripts(bytes);
+
+        assertEquals(List.of("LSCR", "VERB", "SCRP"), scripts.stream().map(Script::getType).toList());
+        assertEquals(List.of("ROOM", "OBCD", "LFLF"), scripts.stream().map(Script::getParentType).toList());
+        assertTrue(scripts.stream().allMatch(s -> s.getRoom() == 42));
+        assertArrayEquals(script, scripts.get(2).getOriginalBytes());
+    }
+
+    @Test
+    public void testGameIndexResolvesScripts() throws IOException {
+        byte[] script = Files.readAllBytes(Paths.get("src/test/resources/script1.bin"));
+        byte[] scriptBody = java.util.Arrays.copyOfRange(script, 8, script.length);
+
+        byte[] room = block("ROOM", block("LSCR", new byte[]{(byte) 200}, scriptBody));
+        int roomOffset = 8 + 14 + 8;
+        byte[] loff = block("LOFF", new byte[]{1, 7, (byte) roomOffset, 0, 0, 0});
+        ByteBuffer data = ByteBuffer.wrap(block("LECF", loff, block("LFLF", room, script)));
+
+        // Script 1 lives in room 7 right behind the ROOM block, script 0 is unused
+        ByteBuffer directory = ByteBuffer.allocate(2 + 2 + 8).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        directory.putShort((short) 2).put((byte) 0).put((byte) 7).putInt(0).putInt(room.length);
+        GameIndex index = GameIndex.read(ByteBuffer.wrap(block("DSCR", directory.array())));
+
+        assertEquals(2, index.getScriptCount());
+        assertNull(ScriptExtractor.readGlobalScript(data, index, 0));
+        Script global = ScriptExtractor.readGlobalScript(data, index, 1);
+        assertEquals(roomOffset + room.length, global.getOffset());
+        assertEquals(7, global.getRoom());
+        assertArrayEquals(script, global.getOriginalBytes());
+
+        List<Script> local = ScriptExtractor.readRoomScripts(data, 7);
+        assertEquals(List.of("LSCR"), local.stream().map(Script::getType).toList());
+        assertTrue(ScriptExtractor.readRoomScripts(data, 8).isEmpty());
+
+        // Index of another edition pointing past the end of the data
+        directory.putInt(8, 999999);
+        GameIndex other = GameIndex.read(ByteBuffer.wrap(block("DSCR", directory.array())));
+        IllegalStateException mismatch = assertThrows(IllegalStateException.class, () -> ScriptExtractor.readGlobalScript(data, other, 1));
+        assertTrue(mismatch.getMessage().startsWith("Index does not match data file"));
+
+        // Directory with more entries than the block holds
+        byte[] shortDirectory = {5, 0, 0, 7};
+        assertThrows(IllegalArgumentException.class, () -> GameIndex.read(ByteBuffer.wrap(block("DSCR", shortDirectory))));
+
+        // LOFF claiming more rooms than it holds, with offsets that don't point to a ROOM block
+        int corruptRoomOffset = 8 + 8 + 16 + 8;
+        byte[] corruptLoff = block("LOFF", new byte[]{9, 7, (byte) corruptRoomOffset, 0, 0, 0, 8, 1, 0, 0, 0, 9, 0x3F, 0x42, 0x0F, 0});
+        ByteBuffer corrupt = ByteBuffer.wrap(block("LECF", corruptLoff, block("LFLF", room, script)));
+        int[] roomOffsets = ScriptExtractor.readRoomOffsets(corrupt);
+        assertEquals(corruptRoomOffset, roomOffsets[7]);
+        assertEquals(999999, roomOffsets[9]);
+        assertEquals(List.of("LSCR"), ScriptExtractor.readRoomScripts(corrupt, 7).stream().map(Script::getType).toList());
+        assertTrue(ScriptExtractor.readRoomScripts(corrupt, 8).isEmpty());
+        assertTrue(ScriptExtractor.readRoomScripts(corrupt, 9).isEmpty());
+        ByteBuffer truncated = ByteBuffer.wrap(block("LECF", java.util.Arrays.copyOf(block("LOFF", new byte[]{9, 7}), 10)));
+        assertEquals(-1, ScriptExtractor.readRoomOffsets(truncated)[7]);
+        assertEquals(List.of("LSCR", "SCRP"), ScriptExtractor.extractScripts(corrupt).stream().map(Script::getType).toList());
+    }
+
+    @Test
+    public void testParallelParseKeepsOrder() throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get("src/test/resources/script1.bin"));
+        byte[] opCode28 = Files.readAllBytes(Paths.get("src/test/resources/opcode28.bin"));
+        List<Script> scripts = java.util.stream.IntStream.range(0, 64)
+                .mapToObj(i -> ScriptExtractor.readScriptAt(i % 2 == 0 ? bytes : opCode28, 0))
+                .toList();
+
+        ScriptParser parser = new ScriptParser();
+        List<Script> parsed = parser.parseAll(scripts, 8);
+
+        assertEquals(scripts, parsed);
+        for (int i = 0; i < parsed.size(); i++) {
+            Script expected = parser.parse(ScriptExtractor.readScriptAt(i % 2 == 0 ? bytes : opCode28, 0));
+            assertEquals(expected.getOpCodes().stream().map(OpCode::getClass).toList(),
+                    parsed.get(i).getOpCodes().stream().map(OpCode::getClass).toList());
+            assertFalse(parsed.get(i).hasErrors());
+        }
+    }
+
+    @Test
+    public void testExtractTextsMatchesFullParse() throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get("src/test/resources/script1.bin"));
+        ScriptParser parser = new ScriptParser();
+
+        List<String> parsed = parser.parse(ScriptExtractor.readScriptAt(bytes, 0)).getOpCodes().stream()
+                .filter(oc -> oc instanceof ITextContainer)
+                .map(oc -> ((ITextContainer) oc).getText())
+                .toList();
+        List<TextRecord> texts = parser.extractTexts(ScriptExtractor.readScriptAt(bytes, 0));
+
+        assertEquals(parsed, texts.stream().map(TextRecord::getText).toList());
+        assertEquals(7, texts.size());
+        assertEquals(0x14, bytes[texts.get(0).getOpCodeOffset()]);
+        assertEquals("-3", texts.get(0).getActor());
+    }
+
+    @Test
+    public void testStreamScriptsMatchesExtractScripts() {
+        byte[][] game = new CorpusGenerator().setRooms(20).setScriptsPerRoom(3).generate();
+        ByteBuffer data = ByteBuffer.wrap(game[0]);
+        List<String> expected = ScriptExtractor.extractScripts(data).stream().map(MonkeyBusinessTest::describe).toList();
+
+        assertEquals(expected, ScriptExtractor.streamScripts(data).map(MonkeyBusinessTest::describe).toList());
+        assertEquals(expected, ScriptExtractor.streamScripts(data).parallel().map(MonkeyBusinessTest::describe).toList());
+
+        // Split as far as possible, the parts have to add up to the file order
+        List<String> split = new ArrayList<>();
+        splitAll(new ScriptSpliterator(new BlockWalker(data)), split);
+        assertEquals(expected, split);
+
+        ScriptParser parser = new ScriptParser();
+        List<String> texts = new ArrayList<>();
+        parser.extractTexts(ScriptExtractor.streamScripts(data), 4, record -> texts.add(record.getText()));
+        assertEquals(parser.extractTexts(ScriptExtractor.extractScripts(data), 1).stream().map(TextRecord::getText).toList(), texts);
+    }
+
+    private static void splitAll(Spliterator<Script> spliterator, List<String> out) {
+        Spliterator<Script> prefix = spliterator.trySplit();
+        if (prefix != null) {
+            splitAll(prefix, out);
+            splitAll(spliterator, out);
+        } else {
+            spliterator.forEachRemaining(script -> out.add(describe(script)));
+        }
+    }
+
+    private static String describe(Script script) {
+        return script.getType() + "@" + script.getOffset() + " room " + script.getRoom() + " in " + script.getParentType() + "@" + script.getParentOffset();
+    }
+
+    @Test
+    public void testPackedScriptMatchesParse() {
+        byte[][] game = new CorpusGenerator().setRooms(6).setScriptsPerRoom(3).setTextDensity(0.3).generate();
+        ScriptParser parser = new ScriptParser();
+
+        for (Script script : ScriptExtractor.extractScripts(game[0])) {
+            PackedScript packed = parser.pack(script);
+            List<OpCode> opCodes = parser.parse(script).getOpCodes();
+
+            assertEquals(opCodes.size(), packed.size());
+            for (int i = 0; i < packed.size(); i++) {
+                assertEquals(opCodes.get(i).getOpCode(), packed.getOpcode(i));
+                assertEquals(opCodes.get(i).getOffset(), packed.getOffset(i));
+                assertEquals(opCodes.get(i).getLength(), packed.getLength(i));
+                assertEquals(opCodes.get(i).getClass(), packed.getOpCode(i, parser).getClass());
+            }
+        }
+
+        // PutActor with variable 0x10 as actor, then StopObjectCode
+        byte[] bytes = {'S', 'C', 'R', 'P', 0, 0, 0, 16, (byte) 0x81, 0x10, 0x00, 0x20, 0x00, 0x30, 0x00, (byte) 0xA0};
+        PackedScript packed = parser.pack(new Script("SCRP", 0, bytes.length, bytes));
+        assertEquals(2, packed.size());
+        assertEquals(3, packed.getOperandCount(0));
+        assertEquals(List.of(0x10, 0x20, 0x30), List.of(packed.getOperand(0, 0), packed.getOperand(0, 1), packed.getOperand(0, 2)));
+        assertEquals(0, packed.getOperandCount(1));
+        assertInstanceOf(StopObjectCode.class, packed.getOpCode(1, parser));
+    }
+
+    @Test
+    public void testScriptVisitorStreamsInstructions() {
+        byte[][] game = new CorpusGenerator().setRooms(6).setScriptsPerRoom(3).setTextDensity(0.3).generate();
+        List<Script> scripts = ScriptExtractor.extractScripts(game[0]);
+        ScriptParser parser = new ScriptParser();
+
+        int[] counts = new int[2];
+        assertTrue(parser.visit(scripts, new ScriptVisitor() {
+            @Override
+            public boolean visitInstruction(byte opcode, int offset, int length, Operands operands) {
+                counts[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean visitText(byte opcode, int offset, String actor, String text) {
+                counts[1]++;
+                return true;
+            }
+        }));
+        assertEquals(scripts.stream().mapToInt(script -> parser.parse(script).getOpCodes().size()).sum(), counts[0]);
+        assertEquals(parser.extractTexts(scripts, 1).size(), counts[1]);
+
+        // Stop at the first text
+        List<String> texts = new ArrayList<>();
+        assertFalse(parser.visit(scripts, new ScriptVisitor() {
+            @Override
+            public boolean visitText(byte opcode, int offset, String actor, String text) {
+                texts.add(text);
+                return false;
+            }
+        }));
+        assertEquals(List.of(parser.extractTexts(scripts, 1).get(0).getText()), texts);
+
+        byte[] bytes = {'S', 'C', 'R', 'P', 0, 0, 0, 16, (byte) 0x81, 0x10, 0x00, 0x20, 0x00, 0x30, 0x00, (byte) 0xA0};
+        List<Integer> operands = new ArrayList<>();
+        parser.visit(new Script("SCRP", 0, bytes.length, bytes), new ScriptVisitor() {
+            @Override
+            public boolean visitInstruction(byte opcode, int offset, int length, Operands values) {
+                for (int i = 0; i < values.size(); i++) {
+                    operands.add(values.get(i));
+                }
+                return true;
+            }
+        });
+        assertEquals(List.of(0x10, 0x20, 0x30), operands);
+    }
+
+    @Test
+    public void testTextIndexAnswersWithoutParsing(@TempDir Path tempDir) throws IOException {
+        File f = tempDir.resolve("indexed.001").toFile();
+        new CorpusGenerator().setRooms(5).setScriptsPerRoom(3).setTextDensity(0.3).write(f);
+        File cacheDir = tempDir.resolve("cache").toFile();
+
+        ScriptParser parser = new ScriptParser();
+        ByteBuffer data = ScriptExtractor.mapFile(f);
+        List<Script> scripts = ScriptExtractor.extractScripts(data);
+        List<TextRecord> texts = parser.extractTexts(scripts, 1);
+
+        TextIndex built = TextIndex.load(f, cacheDir, parser, 2);
+        File indexFile = TextIndex.indexFileFor(f, cacheDir);
+        assertTrue(indexFile.isFile());
+        long written = indexFile.lastModified();
+
+        // A second run maps the existing index, a parser that can't parse anything proves it isn't used
+        ScriptParser broken = new ScriptParser();
+        broken.setParseBudget(0);
+        TextIndex index = TextIndex.load(f, cacheDir, broken, 1);
+        assertEquals(written, indexFile.lastModified());
+
+        assertEquals(built.getTextCount(), index.getTextCount());
+        assertEquals(texts.size(), index.getTextCount());
+        List<TextRecord> indexed = new ArrayList<>();
+        index.forEachText(indexed::add);
+        for (int i = 0; i < texts.size(); i++) {
+            assertEquals(texts.get(i).toString(), indexed.get(i).toString());
+        }
+
+        assertEquals(scripts.size(), index.getScriptCount());
+        List<Script> indexedScripts = index.getScripts(data);
+        for (int i = 0; i < scripts.size(); i++) {
+            assertEquals(scripts.get(i).toString(), indexedScripts.get(i).toString());
+            assertEquals(scripts.get(i).getParentType(), indexedScripts.get(i).getParentType());
+            assertEquals(scripts.get(i).getParentOffset(), indexedScripts.get(i).getParentOffset());
+            assertEquals(scripts.get(i).getBuffer(), indexedScripts.get(i).getBuffer());
+        }
+
+        // Same size and mtime but other contents is out of date
+        byte[] bytes = Files.readAllBytes(f.toPath());
+        bytes[bytes.length / 2] ^= 0x01;
+        long mtime = f.lastModified();
+        Files.write(f.toPath(), bytes);
+        assertTrue(f.setLastModified(mtime));
+        assertNull(TextIndex.open(indexFile, f));
+    }
+
+    @Test
+    public void testGameSnapshotRoundTrip(@TempDir Path tempDir) throws IOException {
+        byte[][] game = new CorpusGenerator().setRooms(5).setScriptsPerRoom(3).setTextDensity(0.3).generate();
+        List<Script> scripts = ScriptExtractor.extractScripts(game[0]);
+        // A broken script keeps its diagnostics
+        byte[] broken = {'S', 'C', 'R', 'P', 0, 0, 0, 11, 0x1A, 0x01, (byte) 0x80};
+        scripts.add(new Script("SCRP", 0x100, broken.length, broken));
+
+        ScriptParser parser = new ScriptParser();
+        File file = tempDir.resolve("game.snapshot").toFile();
+        GameSnapshot.write(file, scripts, parser, 2);
+
+        GameSnapshot snapshot = GameSnapshot.open(file);
+        assertEquals(scripts.size(), snapshot.getScriptCount());
+        assertEquals(parser.extractTexts(scripts, 1).size(), snapshot.getTextCount());
+
+        for (int i = 0; i < scripts.size(); i++) {
+            Script script = scripts.get(i);
+            PackedScript expected = parser.pack(script);
+            PackedScript actual = snapshot.getPackedScript(i);
+
+            assertEquals(script.toString(), actual.getScript().toString());
+            assertEquals(script.getParentType(), actual.getScript().getParentType());
+            assertEquals(script.getBuffer(), actual.getScript().getBuffer());
+            assertEquals(String.valueOf(script.getDiagnostics()), String.valueOf(actual.getScript().getDiagnostics()));
+
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.getOpcode(j), actual.getOpcode(j));
+                assertEquals(expected.getOffset(j), actual.getOffset(j));
+                assertEquals(expected.getLength(j), actual.getLength(j));
+                assertEquals(expected.getOperandCount(j), actual.getOperandCount(j));
+                for (int k = 0; k < expected.getOperandCount(j); k++) {
+                    assertEquals(expected.getOperand(j, k), actual.getOperand(j, k));
+                }
+            }
+            if (actual.size() > 0) {
+                assertEquals(expected.getOpCode(0, parser).getClass(), actual.getOpCode(0, parser).getClass());
+            }
+
+            assertEquals(parser.extractTexts(script).toString(), snapshot.getTexts(i).toString());
+        }
+        assertNotNull(snapshot.getScript(scripts.size() - 1).getDiagnostics());
+
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4});
+        assertThrows(IOException.class, () -> GameSnapshot.open(file));
+    }
+
+    @Test
+    public void testBatchExtractorProcessesAllFiles(@TempDir Path tempDir) throws IOException {
+        for (String edition : List.of("en", "de", "fr")) {
+            Files.createDirectories(tempDir.resolve(edition));
+            new CorpusGenerator().setRooms(4).setScriptsPerRoom(3).setTextDensity(0.3).setSeed(edition.hashCode())
+                    .write(tempDir.resolve(edition).resolve("monkey.001").toFile());
+        }
+        Files.write(tempDir.resolve("de").resolve("broken.001"), new byte[]{1, 2, 3});
+
+        List<File> files = new ArrayList<>(BatchExtractor.resolve(List.of(tempDir + "/*/monkey.001", tempDir.resolve("de").toString())));
+        assertEquals(4, files.size());
+        files.add(tempDir.resolve("missing.001").toFile());
+
+        File out = tempDir.resolve("out").toFile();
+
+        // Same name in directories of the same name, only unique by their path
+        File a = tempDir.resolve("a").resolve("en").resolve("MONKEY.001").toFile();
+        File b = tempDir.resolve("b").resolve("en").resolve("MONKEY.001").toFile();
+        File c = tempDir.resolve("a-en-MONKEY.001").toFile();
+        Map<File, File> names = BatchExtractor.outputFiles(List.of(a, b, c), out);
+        assertEquals(new File(out, "a-en-MONKEY.001.txt"), names.get(a));
+        assertEquals(new File(out, "b-en-MONKEY.001.txt"), names.get(b));
+        assertEquals(new File(out, "a-en-MONKEY.001-2.txt"), names.get(c));
+
+        BatchExtractor.Summary summary = new BatchExtractor(new ScriptParser()).setCpuThreads(2).setOutputDir(out).run(files);
+        assertEquals(5, summary.getResults().size());
+        assertEquals(1, summary.getFailures());
+        assertTrue(summary.getBytesPerSecond() > 0);
+
+        ScriptParser parser = new ScriptParser();
+        for (BatchExtractor.Result result : summary.getResults()) {
+            if (!result.isSuccess()) {
+                assertEquals("missing.001", result.getGameFile().getName());
+                continue;
+            }
+            if (result.getGameFile().getName().equals("monkey.001")) {
+                assertEquals(result.getGameFile().getParentFile().getName() + "-monkey.001.txt", result.getOutputFile().getName());
+            }
+
+            List<String> expected = new ArrayList<>();
+            List<Script> scripts = ScriptExtractor.extractScripts(ScriptExtractor.mapFile(result.getGameFile()));
+            parser.extractTexts(scripts, 1).stream()
+                    .map(TextRecord::getText)
+                    .filter(text -> text != null && !text.isBlank())
+                    .map(TextBeautifier::beautify)
+                    .forEach(expected::add);
+            assertEquals(expected, Files.readAllLines(result.getOutputFile().toPath()));
+            assertEquals(scripts.size(), result.getScripts());
+        }
+    }
+
+    @Test
+    public void testTextPipelineMatchesBatchExtractor(@TempDir Path tempDir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File f = tempDir.resolve("game" + i + ".001").toFile();
+            new CorpusGenerator().setRooms(3 + i).setScriptsPerRoom(3).setTextDensity(0.3).setSeed(i).write(f);
+            files.add(f);
+        }
+        Files.write(tempDir.resolve("empty.001"), new byte[0]);
+        files.add(tempDir.resolve("empty.001").toFile());
+        files.add(tempDir.resolve("missing.001").toFile());
+
+        File expectedDir = tempDir.resolve("batch").toFile();
+        new BatchExtractor(new ScriptParser()).setOutputDir(expectedDir).run(files);
+
+        // Tiny queues and many workers to exercise backpressure and reordering
+        TextPipeline pipeline = new TextPipeline(new ScriptParser())
+                .setOutputDir(tempDir.resolve("pipeline").toFile())
+                .setQueueCapacity(2)
+                .setParallelism(TextPipeline.Step.PARSE, 4)
+                .setParallelism(TextPipeline.Step.BEAUTIFY, 3)
+                .setParallelism(TextPipeline.Step.WRITE, 2);
+        BatchExtractor.Summary summary = pipeline.run(files);
+
+        assertEquals(files.size(), summary.getResults().size());
+        assertEquals(1, summary.getFailures());
+        for (BatchExtractor.Result result : summary.getResults()) {
+            assertEquals(!result.getGameFile().getName().equals("missing.001"), result.isSuccess());
+            if (result.isSuccess()) {
+                File expected = new File(expectedDir, result.getOutputFile().getName());
+                assertEquals(Files.readAllLines(expected.toPath()), Files.readAllLines(result.getOutputFile().toPath()));
+            }
+        }
+
+        // Decoding is CPU work and runs on the sized pool, not on the reader's virtual threads
+        Stage<?, ?> decode = pipeline.getStages().get(TextPipeline.Step.DECODE.ordinal());
+        assertFalse(decode.isIo());
+        assertEquals(files.size(), decode.getProcessed());
+
+        Stage<?, ?> parse = pipeline.getStages().get(TextPipeline.Step.PARSE.ordinal());
+        assertEquals(summary.getResults().stream().mapToInt(result -> Math.max(1, result.getScripts())).sum(), parse.getProcessed());
+        assertTrue(parse.getMaxQueueDepth() <= 2);
+        assertEquals(0, parse.getQueueDepth());
+        assertEquals(TextPipeline.Step.values().length, pipeline.report().lines().count());
+    }
+
+    @Test
+    public void testTextPipelineSurvivesFailingSteps(@TempDir Path tempDir) throws IOException, InterruptedException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File f = tempDir.resolve("game" + i + ".001").toFile();
+            new CorpusGenerator().setRooms(3).setScriptsPerRoom(3).setTextDensity(0.3).setSeed(i).write(f);
+            files.add(f);
+        }
+        File expectedDir = tempDir.resolve("batch").toFile();
+        new BatchExtractor(new ScriptParser()).setOutputDir(expectedDir).run(files);
+
+        // The parser fails on a single script somewhere in the middle of the run
+        AtomicInteger calls = new AtomicInteger();
+        ScriptParser failing = new ScriptParser() {
+            @Override
+            public List<TextRecord> extractTexts(Script script) {
+                if (calls.incrementAndGet() == 20) {
+                    throw new IllegalStateException("Broken script");
+                }
+                return super.extractTexts(script);
+            }
+        };
+        TextPipeline pipeline = new TextPipeline(failing)
+                .setOutputDir(tempDir.resolve("pipeline").toFile())
+                .setQueueCapacity(2)
+                .setParallelism(TextPipeline.Step.PARSE, 3);
+        BatchExtractor.Summary summary = pipeline.run(files);
+
+        assertEquals(1, summary.getFailures());
+        for (BatchExtractor.Result result : summary.getResults()) {
+            assertTrue(result.getNanos() > 0);
+            if (result.isSuccess()) {
+                File expected = new File(expectedDir, result.getOutputFile().getName());
+                assertEquals(Files.readAllLines(expected.toPath()), Files.readAllLines(result.getOutputFile().toPath()));
+            } else {
+                assertEquals("Broken script", result.getError().getMessage());
+            }
+        }
+        assertEquals(0, pipeline.getStages().stream().mapToLong(Stage::getFailed).sum());
+
+        // A worker that throws loses its item but the stage goes on and ends
+        List<Integer> passed = Collections.synchronizedList(new ArrayList<>());
+        Stage<Integer, Integer> throwing = new Stage<>("throwing", 2, false, 1, (Integer item, Consumer<Integer> next) -> {
+            if (item == 3) {
+                throw new IllegalArgumentException("Unlucky");
+            }
+            next.accept(item);
+        });
+        Stage<Integer, Void> sink = new Stage<>("sink", 1, true, 1, (Integer item, Consumer<Void> next) -> passed.add(item));
+        throwing.then(sink);
+        try (ExecutorService cpu = Executors.newFixedThreadPool(2); ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            throwing.start(cpu, io);
+            sink.start(cpu, io);
+            for (int i = 0; i < 6; i++) {
+                throwing.put(i);
+            }
+            throwing.close();
+            sink.await();
+        }
+        assertEquals(1, throwing.getFailed());
+        assertEquals(5, throwing.getProcessed());
+        assertEquals(List.of(0, 1, 2, 4, 5), passed.stream().sorted().toList());
+    }
+
+    @Test
+    public void testRecordWritersEncodeAllFields() throws IOException {
+        List<TextRecord> records = List.of(
+                new TextRecord("LSCR", 0x1234, 0x1250, null, "Plain text"),
+                new TextRecord("VERB", 7, 42, "Guybrush", "Tab\there, \"quoted\" \\ line\nbreak \u0001"),
+                new TextRecord("SCRP", -1, Integer.MAX_VALUE, "Élaine", "Größe \uD83D\uDC12 ÿ"));
+
+        // A tiny buffer forces flushes and a record larger than the buffer
+        Map<RecordWriter.Format, byte[]> written = new HashMap<>();
+        for (RecordWriter.Format format : RecordWriter.Format.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (RecordWriter writer = RecordWriter.open(format, Channels.newChannel(out), 16)) {
+                for (TextRecord record : records) {
+                    writer.write(record);
+                }
+            }
+            written.put(format, out.toByteArray());
+        }
+
+        assertEquals("Plain text\nTab\there, \"quoted\" \\ line\nbreak \u0001\nGröße \uD83D\uDC12 ÿ\n",
+                new String(written.get(RecordWriter.Format.TEXT), StandardCharsets.UTF_8));
+
+        List<String> jsonl = new String(written.get(RecordWriter.Format.JSONL), StandardCharsets.UTF_8).lines().toList();
+        assertEquals(List.of(
+                "{\"scriptType\":\"LSCR\",\"scriptOffset\":4660,\"opCodeOffset\":4688,\"actor\":null,\"text\":\"Plain text\"}",
+                "{\"scriptType\":\"VERB\",\"scriptOffset\":7,\"opCodeOffset\":42,\"actor\":\"Guybrush\",\"text\":\"Tab\\there, \\\"quoted\\\" \\\\ line\\nbreak \\u0001\"}",
+                "{\"scriptType\":\"SCRP\",\"scriptOffset\":-1,\"opCodeOffset\":2147483647,\"actor\":\"Élaine\",\"text\":\"Größe \uD83D\uDC12 ÿ\"}"),
+                jsonl);
+
+        List<String> tsv = new String(written.get(RecordWriter.Format.TSV), StandardCharsets.UTF_8).lines().toList();
+        assertEquals(4, tsv.size());
+        assertEquals(TsvRecordWriter.HEADER.strip(), tsv.get(0));
+        assertEquals("LSCR\t4660\t4688\t\tPlain text", tsv.get(1));
+        assertEquals("VERB\t7\t42\tGuybrush\tTab\\there, \"quoted\" \\\\ line\\nbreak \u0001", tsv.get(2));
+
+        List<TextRecord> binary = BinaryRecordWriter.read(ByteBuffer.wrap(written.get(RecordWriter.Format.BINARY)));
+        assertEquals(records.toString(), binary.toString());
+        assertThrows(IOException.class, () -> BinaryRecordWriter.read(ByteBuffer.wrap(written.get(RecordWriter.Format.TSV))));
+    }
+
+    @Test
+    public void testParseCacheReusesIdenticalScripts() {
+        byte[][] game = new CorpusGenerator().setRooms(6).setScriptsPerRoom(3).setTextDensity(0.3).generate();
+        ScriptParser parser = new ScriptParser();
+        ParseCache cache = new ParseCache(1000, ParseCache.Eviction.LRU);
+        parser.setParseCache(cache);
+
+        byte[] firstEdition = game[0].clone();
+        List<Script> first = parser.parseAll(ScriptExtractor.extractScripts(firstEdition), 4);
+        long misses = cache.getMisses();
+        assertEquals(first.size(), misses);
+        assertEquals(0, cache.getHits());
+
+        // Second edition of the same game
+        List<Script> second = parser.parseAll(ScriptExtractor.extractScripts(game[0]), 4);
+        assertEquals(first.size(), cache.getHits());
+        assertEquals(misses, cache.getMisses());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getOpCodes(), second.get(i).getOpCodes());
+            assertFalse(second.get(i).hasErrors());
+        }
+
+        // Cached opcodes don't point into the data of the first edition
+        java.util.Arrays.fill(firstEdition, (byte) 0);
+        for (Script script : second) {
+            byte[] bytes = script.getOriginalBytes();
+            for (OpCode opCode : script.getOpCodes()) {
+                assertArrayEquals(java.util.Arrays.copyOfRange(bytes, opCode.getOffset(), opCode.getOffset() + opCode.getLength()),
+                        opCode.getOriginalBytes());
+            }
+        }
+
+        // Same bytes but another type decodes differently, so it isn't a hit
+        byte[] bytes = {'S', 'C', 'R', 'P', 0, 0, 0, 10, (byte) 0x80, (byte) 0xA0};
+        ParseCache small = new ParseCache(1, ParseCache.Eviction.FIFO);
+        parser.setParseCache(small);
+        parser.parse(new Script("SCRP", 0, bytes.length, bytes));
+        parser.parse(new Script("LSCR", 0, bytes.length, bytes.clone()));
+        assertEquals(0, small.getHits());
+        assertEquals(1, small.getEvictions());
+        assertEquals(1, small.size());
+        assertEquals(1, parser.parse(new Script("LSCR", 0, bytes.length, bytes.clone())).getOpCodes().size());
+        assertEquals(1, small.getHits());
+    }
+
+    @Test
+    public void testParseCacheKeysTextsByBudgetAndQuery() {
+        byte[][] game = new CorpusGenerator().setRooms(4).setScriptsPerRoom(3).setTextDensity(0.3).generate();
+        List<Script> scripts = ScriptExtractor.extractScripts(game[0]);
+        ScriptParser parser = new ScriptParser();
+        List<TextRecord> expected = parser.extractTexts(scripts, 1);
+        ScriptQuery printEgo = ScriptQuery.all().setOpcodes("PrintEgo");
+        List<TextRecord> expectedPrintEgo = new ArrayList<>();
+        scripts.forEach(script -> parser.extractTexts(script, printEgo, expectedPrintEgo::add));
+
+        ParseCache cache = new ParseCache(1000, ParseCache.Eviction.LRU);
+        parser.setParseCache(cache);
+        assertRecordsEqual(expected, parser.extractTexts(scripts, 1));
+        assertEquals(0, cache.getHits());
+
+        // Same bytes at other offsets, as in another edition
+        List<Script> moved = new ArrayList<>();
+        for (Script script : scripts) {
+            byte[] bytes = script.getOriginalBytes();
+            moved.add(new Script(script.getType(), script.getOffset() + 0x100, bytes.length, bytes));
+        }
+        List<TextRecord> movedTexts = parser.extractTexts(moved, 1);
+        assertEquals(scripts.size(), cache.getHits());
+        assertEquals(expected.size(), movedTexts.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getScriptOffset() + 0x100, movedTexts.get(i).getScriptOffset());
+            assertEquals(expected.get(i).getOpCodeOffset() + 0x100, movedTexts.get(i).getOpCodeOffset());
+            assertEquals(expected.get(i).getText(), movedTexts.get(i).getText());
+        }
+
+        // Another query or budget is another entry
+        long hits = cache.getHits();
+        List<TextRecord> printEgoTexts = new ArrayList<>();
+        scripts.forEach(script -> parser.extractTexts(script, printEgo, printEgoTexts::add));
+        assertEquals(hits, cache.getHits());
+        assertRecordsEqual(expectedPrintEgo, printEgoTexts);
+
+        parser.setParseBudget(1);
+        parser.extractTexts(scripts, 1);
+        assertEquals(hits, cache.getHits());
+        assertTrue(scripts.stream().anyMatch(Script::hasErrors));
+
+        // Full parses don't take text entries
+        parser.setParseBudget(ScriptParser.DEFAULT_PARSE_BUDGET);
+        parser.parse(scripts.get(0));
+        assertEquals(hits, cache.getHits());
+        assertEquals(3L * scripts.size() + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testBatchSharesParseCacheAcrossDuplicateFiles(@TempDir Path tempDir) throws IOException {
+        // Three editions with the same scripts
+        CorpusGenerator generator = new CorpusGenerator().setRooms(5).setScriptsPerRoom(3).setTextDensity(0.3);
+        List<File> files = new ArrayList<>();
+        for (String edition : List.of("en", "de", "fr")) {
+            File file = tempDir.resolve(edition).resolve("monkey.001").toFile();
+            Files.createDirectories(file.getParentFile().toPath());
+            generator.write(file);
+            files.add(file);
+        }
+        int scripts = ScriptExtractor.extractScripts(ScriptExtractor.mapFile(files.get(0))).size();
+
+        File expectedDir = tempDir.resolve("uncached").toFile();
+        new BatchExtractor(new ScriptParser()).setParseCache(null).setOutputDir(expectedDir).run(files);
+
+        BatchExtractor extractor = new BatchExtractor(new ScriptParser()).setCpuThreads(1).setOutputDir(tempDir.resolve("batch").toFile());
+        BatchExtractor.Summary summary = extractor.run(files);
+        assertEquals(0, summary.getFailures());
+        assertTrue(extractor.getParseCache().getHits() >= 2L * scripts, extractor.getParseCache().toString());
+        assertTrue(extractor.getParseCache().getMisses() <= scripts, extractor.getParseCache().toString());
+        assertOutputsEqual(expectedDir, summary);
+
+        TextPipeline pipeline = new TextPipeline(new ScriptParser())
+                .setParallelism(TextPipeline.Step.PARSE, 1)
+                .setOutputDir(tempDir.resolve("pipeline").toFile());
+        summary = pipeline.run(files);
+        assertEquals(0, summary.getFailures());
+        assertTrue(pipeline.getParseCache().getHits() >= 2L * scripts, pipeline.getParseCache().toString());
+        assertOutputsEqual(expectedDir, summary);
+    }
+
+    private static void assertOutputsEqual(File expectedDir, BatchExtractor.Summary summary) throws IOException {
+        for (BatchExtractor.Result result : summary.getResults()) {
+            File expected = new File(expectedDir, result.getOutputFile().getName());
+            assertEquals(Files.readAllLines(expected.toPath()), Files.readAllLines(result.getOutputFile().toPath()));
+        }
+    }
+
+    private static void assertRecordsEqual(List<TextRecord> expected, List<TextRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getOpCodeOffset(), actual.get(i).getOpCodeOffset());
+            assertEquals(expected.get(i).getActor(), actual.get(i).getActor());
+            assertEquals(expected.get(i).getText(), actual.get(i).getText());
+        }
+    }
+
+    @Test
+    public void testScriptQueryMatchesFilteredResults(@TempDir Path tempDir) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator().setRooms(6).setScriptsPerRoom(4).setTextDensity(0.3);
+        File file = tempDir.resolve("game.001").toFile();
+        generator.write(file);
+        ByteBuffer data = ScriptExtractor.mapFile(file);
+        List<Script> all = ScriptExtractor.extractScripts(data);
+        int middle = all.get(all.size() / 2).getOffset();
+
+        List<ScriptQuery> queries = List.of(
+                ScriptQuery.all().setTypes(ScriptExtractor.LSCR, ScriptExtractor.OBCD),
+                ScriptQuery.all().setTypes(ScriptExtractor.SCRP),
+                ScriptQuery.all().setRooms(2, 4),
+                ScriptQuery.all().setOffsets(middle, middle + 4096),
+                ScriptQuery.all().setTypes(ScriptExtractor.ENCD).setRooms(3).setOffsets(0, middle));
+        for (ScriptQuery query : queries) {
+            List<String> expected = all.stream().filter(query::matches).map(Script::toString).toList();
+            assertFalse(expected.isEmpty(), query.toString());
+            assertEquals(expected, ScriptExtractor.extractScripts(data, query).stream().map(Script::toString).toList(), query.toString());
+            assertEquals(expected, ScriptExtractor.streamScripts(data, query).parallel().map(Script::toString).toList(), query.toString());
+
+            List<Script> fromFile = ScriptExtractor.extractScripts(file, query);
+            assertEquals(expected, fromFile.stream().map(Script::toString).toList(), query.toString());
+            for (Script script : fromFile) {
+                assertEquals(data.slice(script.getOffset(), script.getLength()), script.getBuffer());
+            }
+        }
+
+        ScriptParser parser = new ScriptParser();
+        ScriptQuery prints = ScriptQuery.all().setOpcodes("Print", "PrintEgo");
+        List<TextRecord> texts = new ArrayList<>();
+        parser.extractTexts(all.stream(), 2, prints, texts::add);
+        List<TextRecord> expectedTexts = parser.extractTexts(all, 1).stream()
+                .filter(text -> List.of("PrintParser", "PrintEgoParser").contains(parser.getParser(data.get(text.getOpCodeOffset())).getName()))
+                .toList();
+        assertFalse(expectedTexts.isEmpty());
+        assertTrue(expectedTexts.size() < parser.extractTexts(all, 1).size());
+        assertEquals(expectedTexts.toString(), texts.toString());
+
+        ScriptQuery printEgo = ScriptQuery.all().setOpcodes("PrintEgo");
+        for (Script script : all) {
+            List<Class<?>> expected = parser.parse(copy(script)).getOpCodes().stream()
+                    .filter(opCode -> parser.getParser(opCode.getOpCode()).getName().equals("PrintEgoParser"))
+                    .map(Object::getClass).toList();
+            Script filtered = parser.parse(copy(script), printEgo);
+            assertEquals(expected, filtered.getOpCodes().stream().map(Object::getClass).toList());
+        }
+        assertEquals(0, parser.parse(copy(all.get(0)), ScriptQuery.all().setOpcodeValues()).getOpCodes().size());
+    }
+
+    @Test
+    public void testAhoCorasickFindsAllPatterns() {
+        byte[][] patterns = {"he".getBytes(), "she".getBytes(), "his".getBytes(), "hers".getBytes(), "s*e".getBytes(),
+                "h**s".getBytes(), "he".getBytes()};
+        AhoCorasick matcher = new AhoCorasick(patterns);
+        Random random = new Random(42);
+        byte[] bytes = new byte[20000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) "hers ".charAt(random.nextInt(5));
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+
+        List<AhoCorasick.Match> expected = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i++) {
+            for (int p = 0; p < patterns.length; p++) {
+                if (KnuthMorrisPratt.indexOf(bytes, i, Math.min(bytes.length, i + patterns[p].length), patterns[p]) == i) {
+                    expected.add(new AhoCorasick.Match(p, i));
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, matcher.findAll(data));
+        assertEquals(expected, matcher.findAll(data, 4, 7));
+        assertEquals(expected, matcher.findAll(data, 3, 1000));
+        assertEquals(expected.stream().filter(match -> match.getIndex() >= 100 && match.getIndex() < 200).toList(),
+                matcher.findRange(data, 100, 200));
+        assertThrows(IllegalArgumentException.class, () -> new AhoCorasick("**".getBytes()));
+
+        // Tag search finds the same blocks as searching every tag on its own
+        byte[] game = new CorpusGenerator().setRooms(4).setScriptsPerRoom(3).setTextDensity(0.3).generate()[0];
+        List<String> scanned = new ArrayList<>();
+        for (String type : List.of(ScriptExtractor.SCRP, ScriptExtractor.LSCR, ScriptExtractor.EXCD, ScriptExtractor.ENCD, ScriptExtractor.OBCD)) {
+            int idx = 0;
+            while ((idx = KnuthMorrisPratt.indexOf(game, idx, game.length, type.getBytes())) >= 0) {
+                Script script = ScriptExtractor.readScriptAt(game, idx);
+                scanned.add(script.toString());
+                idx += script.getLength();
+            }
+        }
+        assertEquals(scanned, ScriptExtractor.scanScripts(game).stream().map(Script::toString).toList());
+    }
+
+    @Test
+    public void testParallelScanMatchesSequentialScan() {
+        // Several games back to back, with tags whose length runs past the data or is too short in between
+        ByteArrayOutputStream corpus = new ByteArrayOutputStream();
+        List<Integer> walked = new ArrayList<>();
+        for (int seed = 0; seed < 4; seed++) {
+            byte[] game = new CorpusGenerator().setRooms(3).setScriptsPerRoom(3).setSeed(seed).generate()[0];
+            int base = corpus.size();
+            ScriptExtractor.extractScripts(game).forEach(script -> walked.add(base + script.getOffset()));
+            corpus.writeBytes(game);
+            corpus.writeBytes(new byte[]{'L', 'S', 'C', 'R', 0x7F, 0, 0, 0, 'V', 'E', 'R', 'B', 0, 0, 0, 4, 'E', 'N'});
+        }
+        corpus.writeBytes(new byte[]{'S', 'C', 'R', 'P', 0, 0, 0});
+        ByteBuffer data = ByteBuffer.wrap(corpus.toByteArray());
+
+        List<String> sequential = ScriptExtractor.scanScripts(data).stream().map(Script::toString).toList();
+        assertFalse(sequential.isEmpty());
+        for (int chunkSize : List.of(1, 3, 1000, 4096)) {
+            assertEquals(sequential, ScriptExtractor.scanScripts(data, 4, chunkSize).stream().map(Script::toString).toList());
+        }
+
+        List<Script> scripts = ScriptExtractor.scanScripts(data, 3);
+        assertTrue(scripts.stream().allMatch(script -> script.getLength() >= 8
+                && script.getOffset() + script.getLength() <= data.limit()));
+        assertTrue(scripts.stream().map(Script::getOffset).toList().containsAll(walked));
+
+        // The fake tags are rejected when read directly
+        byte[] fakes = {'L', 'S', 'C', 'R', 0x7F, 0, 0, 0, 'V', 'E', 'R', 'B', 0, 0, 0, 4, 'S', 'C', 'R', 'P'};
+        assertThrows(IllegalArgumentException.class, () -> ScriptExtractor.readScriptAt(fakes, 0));
+        assertThrows(IllegalArgumentException.class, () -> ScriptExtractor.readScriptAt(fakes, 8));
+        assertThrows(IllegalArgumentException.class, () -> ScriptExtractor.readScriptAt(fakes, 16));
+        assertEquals(8, ScriptExtractor.readScriptAt(new byte[]{'S', 'C', 'R', 'P', 0, 0, 0, 8}, 0).getLength());
+    }
+
+    private static Script copy(Script script) {
+        Script copy = new Script(script.getType(), script.getOffset(), script.getLength(), script.getBuffer());
+        copy.setRoom(script.getRoom());
+        return copy;
+    }
+
+    @Test
+    public void testOperandsAreLittleEndian() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(11);
+        buffer.put(new byte[]{0x34, 0x12, 0x05, 0x20, 0x07, 0x00, 0x01, 0x02, 0x03, (byte) 0xFE, (byte) 0xFF}).flip();
+        ParseContext ctx = new ParseContext(buffer.asReadOnlyBuffer());
+
+        assertEquals(0x1234, ctx.fetchScriptWord());
+        // Indexed result variable, followed by its index
+        assertEquals(0x2005, ctx.getResultPos());
+        assertEquals(6, ctx.getBuffer().position());
+        assertEquals(0x030201, ctx.readValue24());
+        assertEquals(-2, ctx.readValue16());
+        assertEquals(ByteOrder.BIG_ENDIAN, ctx.getBuffer().order());
+        assertFalse(ctx.hasError());
+    }
+
+    @Test
+    public void testParseDiagnosticsOnBrokenScripts() {
+        ScriptParser parser = new ScriptParser();
+
+        // PutActor cut off in the middle of its operands
+        byte[] truncated = {'S', 'C', 'R', 'P', 0, 0, 0, 12, 0x01, 0x10, 0x20, 0x00};
+        Script script = parser.parse(new Script("SCRP", 0x100, truncated.length, truncated));
+        assertEquals(ParseDiagnostics.Reason.TRUNCATED, script.getDiagnostics().getReason());
+        assertEquals(8, script.getDiagnostics().getOffset());
+        assertEquals(0x108, script.getDiagnostics().getAbsoluteOffset());
+        assertEquals(0, script.getOpCodes().size());
+        assertNotNull(script.getParseError());
+
+        // BreakHere, then an opcode that doesn't exist
+        byte[] unknown = {'S', 'C', 'R', 'P', 0, 0, 0, 10, (byte) 0x80, 0x4F};
+        script = parser.parse(new Script("SCRP", 0, unknown.length, unknown));
+        assertEquals(ParseDiagnostics.Reason.UNKNOWN_OPCODE, script.getDiagnostics().getReason());
+        assertEquals(0x4F, script.getDiagnostics().getOpcode());
+        assertEquals(1, script.getOpCodes().size());
+
+        byte[] breaks = {'S', 'C', 'R', 'P', 0, 0, 0, 12, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80};
+        parser.setParseBudget(3);
+        script = parser.parse(new Script("SCRP", 0, breaks.length, breaks));
+        assertEquals(ParseDiagnostics.Reason.BUDGET_EXCEEDED, script.getDiagnostics().getReason());
+        assertEquals(3, script.getOpCodes().size());
+        parser.setParseBudget(ScriptParser.DEFAULT_PARSE_BUDGET);
+
+        // Random garbage never throws, decoding either completes or reports where it stopped
+        java.util.Random random = new java.util.Random(3);
+        for (int i = 0; i < 20000; i++) {
+            byte[] bytes = new byte[8 + random.nextInt(40)];
+            random.nextBytes(bytes);
+            Script garbage = parser.parse(new Script("SCRP", 0, bytes.length, bytes));
+            if (garbage.getDiagnostics() != null) {
+                assertTrue(garbage.getDiagnostics().getOffset() >= 8 && garbage.getDiagnostics().getOffset() <= bytes.length);
+            }
+        }
+    }
+
+    @Test
+    public void testOpCodeSpecExpandsVariants() {
+        ScriptParser parser = new ScriptParser();
+
+        int known = 0;
+        for (int opcode = 0; opcode < 256; opcode++) {
+            if (parser.getParser((byte) opcode) != null) {
+                known++;
+            }
+        }
+        assertEquals(244, known);
+
+        // 01 E0 PutActor: all combinations of the three parameter bits
+        for (int opcode : new int[]{0x01, 0x21, 0x41, 0x61, 0x81, 0xA1, 0xC1, 0xE1}) {
+            assertEquals("PutActorParser", parser.getParser((byte) opcode).getName());
+        }
+        // 0F 80 GetObjectState: 0x40 is not one of its parameter bits
+        assertNull(parser.getParser((byte) 0x4F));
+        assertEquals("PrintParser", parser.getParser((byte) 0x94).getName());
+
+        // PutActor with a variable actor and direct coordinates
+        ParseContext ctx = new ParseContext(ByteBuffer.wrap(new byte[]{(byte) 0x81, 0x10, 0x00, 0x20, 0x00, 0x30, 0x00}));
+        ctx.getBuffer().position(1);
+        OpCode opCode = parser.getParser((byte) 0x81).run((byte) 0x81, ctx);
+        assertInstanceOf(PutActor.class, opCode);
+        assertEquals(7, opCode.getLength());
+    }
+
+    @Test
+    public void testTextBeautifierMatchesRegexChain() {
+        assertEquals("Das muss ein bisschen  …  Stress sein", TextBeautifier.beautify("Das muß\u0003ein  bißchen ^ ^ Streß sein"));
+
+        // "paß" is part of "verpaßte", the longest match gives the same result as the rule order of the regex chain
+        for (String text : List.of("verpaßte", "Du verpaßte paßte", "verpaß", "Paßverpaßte", "verpaßtest")) {
+            assertEquals(beautifyWithRegex(text), TextBeautifier.beautify(text), text);
+        }
+        assertEquals("Ich verpasste den Pass", TextBeautifier.beautify("Ich verpaßte den Paß"));
+
+        // Compare against the original chain of replaceAll calls on random texts built from the interesting characters
+        char[] alphabet = "aDdmuüklßsPp ^…\u00A0\u0003\u000F\t.xhäicenrtKS!".toCharArray();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            assertEquals(beautifyWithRegex(text.toString()), TextBeautifier.beautify(text.toString()), text.toString());
+        }
+    }
+
+    @Test
+    public void testTextDecoderMatchesCharsetDecoding() {
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            while (buffer.remaining() > 4) {
+                int b = random.nextInt(12) == 0 ? 0xFF : 1 + random.nextInt(255);
+                buffer.put((byte) b);
+                if (b == 0xFF) {
+                    // Escape code, possibly followed by operand bytes that contain 0x00
+                    int code = random.nextInt(10);
+                    buffer.put((byte) code);
+                    if (TextDecoder.hasOperand(code)) {
+                        buffer.put((byte) random.nextInt(3));
+                        buffer.put((byte) random.nextInt(3));
+                    }
+                }
+            }
+            buffer.put((byte) 0x00);
+
+            ByteBuffer legacy = buffer.duplicate().position(0).limit(buffer.position());
+            ParseContext decoder = new ParseContext(buffer.duplicate().position(0).limit(buffer.position()));
+            assertEquals(decodeWithCharset(legacy), decoder.readText());
+            assertEquals(legacy.position(), decoder.getBuffer().position());
+
+            ParseContext skipper = new ParseContext(buffer.duplicate().position(0).limit(buffer.position()));
+            skipper.skipText();
+            assertEquals(legacy.position(), skipper.getBuffer().position());
+        }
+
+        byte[] message = {'H', 'i', (byte) 0xFF, 0x03, 'Y', 'o', 'u', ' ', (byte) 0xFF, 0x04, 0x10, 0x00, (byte) 0xFF, 0x01, 0x00};
+        List<TextToken> tokens = TextDecoder.tokenize(ByteBuffer.wrap(message));
+        assertEquals(List.of(TextToken.Type.TEXT, TextToken.Type.WAIT, TextToken.Type.TEXT, TextToken.Type.INT_VAR, TextToken.Type.NEWLINE),
+                tokens.stream().map(TextToken::getType).toList());
+        assertEquals("You ", tokens.get(2).getText());
+        assertEquals(0x10, tokens.get(3).getOperand());
+
+        String text = new ParseContext(ByteBuffer.wrap(message)).readText();
+        assertEquals(tokens.toString(), TextDecoder.tokenize(text).toString());
+    }
+
+    /**
+     * The original two pass text decoding: measure the message, then decode it with the CP850 charset
+     */
+    private static String decodeWithCharset(ByteBuffer buffer) {
+        int start = buffer.position();
+        int pos = start;
+        byte chr;
+        while ((chr = buffer.get(pos++)) != (byte) 0x00) {
+            if (chr == (byte) 0xFF) {
+                chr = buffer.get(pos++);
+                if (chr != 1 && chr != 2 && chr != 3 && chr != 8) {
+                    pos += 2;
+                }
+            }
+        }
+
+        byte[] text = new byte[pos - 1 - start];
+        buffer.get(text);
+        buffer.get();
+        return new String(text, Charset.forName("IBM850"));
+    }
+
+    private static String beautifyWithRegex(String input) {
+        return input
+                .replaceAll("\\x0F", "™")
+                .replaceAll("\\u0003", " ")
+                .replaceAll("\\x5E", "…")
+                .replaceAll("\\s+", " ")
+                .replaceAll("\\u00A0", "")
+                .replaceAll("daß ", "dass ")
+                .replaceAll("Daß ", "Dass ")
+                .replaceAll("muß", "muss")
+                .replaceAll("Muß", "Muss")
+                .replaceAll("müß", "müss")
+                .replaceAll("wuß", "wuss")
+                .replaceAll("wüß", "wüss")
+                .replaceAll("laß", "lass")
+                .replaceAll("läßt", "lässt")
+                .replaceAll("Paß", "Pass")
+                .replaceAll("paß", "pass")
+                .replaceAll("verpaßte", "verpasste")
+                .replaceAll("ergiß", "ergiss")
+                .replaceAll("häßlich", "hässlich")
+                .replaceAll("Abschluß", "Abschluss")
+                .replaceAll("Streß", "Stress")
+                .replaceAll("vergeßt", "vergesst")
+                .replaceAll("bißchen", "bisschen")
+                .replaceAll("frißt", "frisst")
+                .replaceAll("Kuß", "Kuss")
+                .replaceAll("Küß", "Küss")
+                .replaceAll("…[^\\p{Graph}]+…", " … ");
+    }
+
+    private static byte[] block(String tag, byte[]... children) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            content.writeBytes(child);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 + content.size());
+        buffer.put(tag.getBytes(Charset.forName("IBM850")));
+        buffer.putInt(8 + content.size());
+        buffer.put(content.toByteArray());
+        return buffer.array();
+    }
+
     @ParameterizedTest
     @MethodSource("regressiveTestFileProvider")
     @Order(4)